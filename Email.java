@@ -1,6 +1,13 @@
+import java.io.IOException;
+import java.io.ObjectInputStream;
 import java.io.Serial;
 import java.io.Serializable;
+import java.nio.ByteBuffer;
+import java.nio.charset.StandardCharsets;
+import java.security.MessageDigest;
+import java.security.NoSuchAlgorithmException;
 import java.util.GregorianCalendar;
+import java.util.UUID;
 
 /**
  * Email class contains the basic information of a standard email (to,cc,bcc,subject, timestamp)
@@ -11,12 +18,17 @@ import java.util.GregorianCalendar;
 public class Email implements Serializable {
     @Serial
     private static final long serialVersionUID = 1L;
+    private String id; // Identifies the email across copies of the mailbox (never changes)
     private String to;
     private String cc;
     private String bcc;
     private String subject;
     private String body;
     private GregorianCalendar timestamp;
+    private boolean read;
+    private GregorianCalendar sendAt; // When a scheduled email leaves the outbox (null if not scheduled)
+    private transient long contentHash; // Cached result of getContentHash()
+    private transient boolean hashed; // Whether contentHash is up to date
 
     /**
      * Constructs a new Email with the specified to, cc, bcc, subject, and body.
@@ -28,6 +40,7 @@ public class Email implements Serializable {
      * @param body the body text of the email
      */
     public Email(String to, String cc, String bcc, String subject, String body) {
+        this.id = UUID.randomUUID().toString();
         this.to = to;
         this.cc = cc;
         this.bcc = bcc;
@@ -36,6 +49,11 @@ public class Email implements Serializable {
         this.timestamp = new GregorianCalendar();
     }
 
+    // Getter for the id of the email
+    public String getId() {
+        return id;
+    }
+
     // Getter and setter for recipient's email address.
     public String getTo() {
         return to;
@@ -43,6 +61,7 @@ public class Email implements Serializable {
 
     public void setTo(String to) {
         this.to = to;
+        hashed = false;
     }
 
     // Getter and setter for cc recipient's email address.
@@ -52,6 +71,7 @@ public class Email implements Serializable {
 
     public void setCc(String cc) {
         this.cc = cc;
+        hashed = false;
     }
 
     // Getter and setter for bcc recipient's email address
@@ -61,6 +81,7 @@ public class Email implements Serializable {
 
     public void setBcc(String bcc) {
         this.bcc = bcc;
+        hashed = false;
     }
 
     // Getter and setter of the subject
@@ -70,6 +91,7 @@ public class Email implements Serializable {
 
     public void setSubject(String subject) {
         this.subject = subject;
+        hashed = false;
     }
 
     // Getter and setter for body text of the email
@@ -79,6 +101,7 @@ public class Email implements Serializable {
 
     public void setBody(String body) {
         this.body = body;
+        hashed = false;
     }
 
     // Getter and setter for timestamp of when the email was created
@@ -88,5 +111,118 @@ public class Email implements Serializable {
 
     public void setTimestamp(GregorianCalendar timestamp) {
         this.timestamp = timestamp;
+        hashed = false;
+    }
+
+    // Getter and setter for whether the email has been read (use Folder.setRead for emails inside a folder)
+    public boolean isRead() {
+        return read;
+    }
+
+    public void setRead(boolean read) {
+        this.read = read;
+        hashed = false;
+    }
+
+    // Getter and setter for when a scheduled email is sent (null if it is sent straight away)
+    public GregorianCalendar getSendAt() {
+        return sendAt;
+    }
+
+    public void setSendAt(GregorianCalendar sendAt) {
+        this.sendAt = sendAt;
+        hashed = false;
+    }
+
+    /**
+     * Returns a 64 bit hash of the email's id and contents (including the read flag and send time), used to tell
+     * whether two copies of an email are the same. The hash is cached until a setter changes the email.
+     * @return the content hash
+     */
+    public long getContentHash() {
+        if (!hashed) {
+            MessageDigest digest;
+            try {
+                digest = MessageDigest.getInstance("SHA-256");
+            } catch (NoSuchAlgorithmException e) {
+                throw new IllegalStateException("SHA-256 is not available", e);
+            }
+            for (String field : new String[]{id, to, cc, bcc, subject, body}) {
+                updateDigest(digest, field);
+            }
+            digest.update(ByteBuffer.allocate(17)
+                    .putLong(timestamp != null ? timestamp.getTimeInMillis() : 0)
+                    .putLong(sendAt != null ? sendAt.getTimeInMillis() : -1)
+                    .put((byte) (read ? 1 : 0))
+                    .array());
+            contentHash = ByteBuffer.wrap(digest.digest()).getLong(); // The first 64 bits of the SHA-256
+            hashed = true;
+        }
+        return contentHash;
+    }
+
+    /**
+     * Helper Function to add a length-prefixed string to a digest, so field boundaries cannot be shifted
+     * @param digest the digest to update
+     * @param field the field to add (null is distinct from empty)
+     */
+    private static void updateDigest(MessageDigest digest, String field) {
+        if (field == null) {
+            digest.update(ByteBuffer.allocate(4).putInt(-1).array());
+            return;
+        }
+        byte[] bytes = field.getBytes(StandardCharsets.UTF_8);
+        digest.update(ByteBuffer.allocate(4).putInt(bytes.length).array());
+        digest.update(bytes);
+    }
+
+    /**
+     * Gives emails saved before ids existed an id derived from their contents, so copies of the same old save
+     * on two machines get the same id
+     * @param in the stream the email is read from
+     */
+    @Serial
+    private void readObject(ObjectInputStream in) throws IOException, ClassNotFoundException {
+        in.defaultReadObject();
+        if (id == null) {
+            String key = to + "\n" + cc + "\n" + bcc + "\n" + subject + "\n" + body + "\n"
+                    + (timestamp != null ? timestamp.getTimeInMillis() : 0);
+            id = UUID.nameUUIDFromBytes(key.getBytes(StandardCharsets.UTF_8)).toString();
+        }
+    }
+
+    /**
+     * Returns the size of the email as the number of UTF-8 bytes in its address fields, subject and body
+     * @return the size of the email in bytes
+     */
+    public long getSize() {
+        return utf8Length(to) + utf8Length(cc) + utf8Length(bcc) + utf8Length(subject) + utf8Length(body);
+    }
+
+    /**
+     * Helper Function to count the UTF-8 bytes of a string without encoding it
+     * @param text the text to measure (null counts as empty)
+     * @return the number of bytes the text takes in UTF-8
+     */
+    private static long utf8Length(String text) {
+        if (text == null) {
+            return 0;
+        }
+        long length = 0;
+        for (int i = 0; i < text.length(); i++) {
+            char c = text.charAt(i);
+            if (c < 0x80) {
+                length += 1;
+            } else if (c < 0x800) {
+                length += 2;
+            } else if (Character.isHighSurrogate(c) && i + 1 < text.length()
+                    && Character.isLowSurrogate(text.charAt(i + 1))) {
+                length += 4; // A surrogate pair is one 4 byte character
+                i++;
+            } else {
+                length += 3;
+            }
+        }
+        return length;
     }
 }
\ No newline at end of file
@@ -0,0 +1,109 @@
+import java.io.Serial;
+import java.io.Serializable;
+import java.util.ArrayList;
+import java.util.GregorianCalendar;
+import java.util.List;
+
+/**
+ * FilingRule describes where incoming mail should be filed. A rule matches an email when every condition
+ * it sets is satisfied: any one of its address keywords appears in To/CC/BCC, any one of its subject keywords
+ * appears in the subject, any one of its body keywords appears in the body, and the timestamp falls inside
+ * the optional date range. Conditions left empty are ignored.
+ *
+ * @author Kenny
+ **/
+public class FilingRule implements Serializable {
+    @Serial
+    private static final long serialVersionUID = 1L;
+    private String targetFolder;
+    private ArrayList<String> addressKeywords;
+    private ArrayList<String> subjectKeywords;
+    private ArrayList<String> bodyKeywords;
+    private GregorianCalendar after;
+    private GregorianCalendar before;
+
+    /**
+     * Constructs a rule that files matching mail into the given folder
+     * @param targetFolder the name of the folder matching mail is filed into
+     * @param addressKeywords keywords matched against the To, CC and BCC fields
+     * @param subjectKeywords keywords matched against the subject line
+     * @param bodyKeywords keywords matched against the body text
+     */
+    public FilingRule(String targetFolder, List<String> addressKeywords, List<String> subjectKeywords,
+                      List<String> bodyKeywords) {
+        this.targetFolder = targetFolder;
+        this.addressKeywords = new ArrayList<>(addressKeywords);
+        this.subjectKeywords = new ArrayList<>(subjectKeywords);
+        this.bodyKeywords = new ArrayList<>(bodyKeywords);
+    }
+
+    // Getter and setter for the target folder name
+    public String getTargetFolder() {
+        return targetFolder;
+    }
+
+    public void setTargetFolder(String targetFolder) {
+        this.targetFolder = targetFolder;
+    }
+
+    // Getters for the keyword lists
+    public List<String> getAddressKeywords() {
+        return addressKeywords;
+    }
+
+    public List<String> getSubjectKeywords() {
+        return subjectKeywords;
+    }
+
+    public List<String> getBodyKeywords() {
+        return bodyKeywords;
+    }
+
+    // Getter and setter for the earliest timestamp matched (null for no lower bound)
+    public GregorianCalendar getAfter() {
+        return after;
+    }
+
+    public void setAfter(GregorianCalendar after) {
+        this.after = after;
+    }
+
+    // Getter and setter for the latest timestamp matched (null for no upper bound)
+    public GregorianCalendar getBefore() {
+        return before;
+    }
+
+    public void setBefore(GregorianCalendar before) {
+        this.before = before;
+    }
+
+    /**
+     * Checks whether a timestamp falls inside this rule's date range
+     * @param timestamp the timestamp to check
+     * @return true if the timestamp is inside the range (or the rule has no date range)
+     */
+    public boolean matchesDate(GregorianCalendar timestamp) {
+        if (after != null && timestamp.before(after)) {
+            return false;
+        }
+        return before == null || !timestamp.after(before);
+    }
+
+    @Override
+    public String toString() {
+        StringBuilder description = new StringBuilder("-> " + targetFolder);
+        if (!addressKeywords.isEmpty()) {
+            description.append(" | address: ").append(String.join(", ", addressKeywords));
+        }
+        if (!subjectKeywords.isEmpty()) {
+            description.append(" | subject: ").append(String.join(", ", subjectKeywords));
+        }
+        if (!bodyKeywords.isEmpty()) {
+            description.append(" | body: ").append(String.join(", ", bodyKeywords));
+        }
+        if (after != null || before != null) {
+            description.append(" | date range set");
+        }
+        return description.toString();
+    }
+}
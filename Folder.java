@@ -1,10 +1,23 @@
+import java.io.IOException;
+import java.io.ObjectInputStream;
+import java.io.ObjectOutputStream;
+import java.io.ObjectStreamField;
 import java.io.Serial;
 import java.io.Serializable;
 import java.util.ArrayList;
-import java.util.Comparator;
+import java.util.Collection;
+import java.util.Collections;
+import java.util.IdentityHashMap;
+import java.util.Iterator;
+import java.util.List;
+import java.util.Set;
+import java.util.TreeMap;
 
 /**
  * Folder class represents an email folder containing the list of emails and the name of the folder
+ * The emails are held in an immutable PersistentList. Readers get the current version without locking and can
+ * iterate it while other threads change the folder; writers are synchronized and publish each new version
+ * through a volatile field. Sorting never reorders the folder; sorted orders are served as SortViews instead.
  *
  * @author Kenny
  **/
@@ -12,27 +25,112 @@ import java.util.Comparator;
 public class Folder implements Serializable {
     @Serial
     private static final long serialVersionUID = 1L;
-    private ArrayList<Email> emails;
+    // The emails are still written as an ArrayList so saves stay compatible with earlier versions
+    @Serial
+    private static final ObjectStreamField[] serialPersistentFields = {
+            new ObjectStreamField("emails", ArrayList.class),
+            new ObjectStreamField("name", String.class),
+            new ObjectStreamField("currentSortingMethod", String.class),
+            new ObjectStreamField("entryTimes", long[].class)
+    };
+    private volatile PersistentList<Email> emails;
+    // When each email was put in the folder, by position; changed together with emails under the folder's lock
+    private PersistentList<Long> entryTimes;
     private String name;
     private String currentSortingMethod;
+    private transient volatile long version; // Number of changes since the folder was created or loaded
+    private transient SortView.Cache sortViews; // Sorted views of the current version
+    // Running totals, updated by every change and published as an immutable FolderSummary
+    private transient int unreadCount;
+    private transient long totalBytes;
+    private transient TreeMap<Long, Integer> timestampCounts; // Timestamp -> number of emails with it
+    private transient TreeMap<Long, Integer> entryCounts; // Time an email was put in the folder -> number of emails
+    private transient volatile FolderSummary summary;
+    private transient FolderDigest digest; // Merkle tree of the emails, used to sync copies of the folder
+    private transient IdentityHashMap<Email, Integer> members; // Email -> number of times it is in the folder
+
+    /**
+     * A copy of a folder taken for saving
+     * @param folder the folder the copy was taken from
+     * @param copy a folder holding the emails, entry times, name and sorting method of that moment, only meant to
+     *             be serialized or read
+     * @param version the version of the folder at that moment
+     */
+    record Snapshot(Folder folder, Folder copy, long version) {
+    }
 
     /**
      * Constructor for folder with a given name and sets default sorting method to date descending.
      * @param name the name of the folder
      */
     public Folder(String name) {
-        this.emails = new ArrayList<>();
+        this.emails = PersistentList.empty();
+        this.entryTimes = PersistentList.empty();
         this.name = name;
         this.currentSortingMethod = "dateDescending";
+        this.sortViews = new SortView.Cache();
+        recount(emails, entryTimes);
+    }
+
+    /**
+     * Private constructor for a copy made by snapshot(); the copy has no running totals or sorted views, so it
+     * can only be serialized or read
+     * @param emails the emails of the copy
+     * @param entryTimes when each email was put in the folder
+     * @param name the name of the folder
+     * @param currentSortingMethod the sorting method of the folder
+     */
+    private Folder(PersistentList<Email> emails, PersistentList<Long> entryTimes, String name,
+                   String currentSortingMethod) {
+        this.emails = emails;
+        this.entryTimes = entryTimes;
+        this.name = name;
+        this.currentSortingMethod = currentSortingMethod;
     }
 
-    // Getter and setter for emails
-    public ArrayList<Email> getEmails() {
+    /**
+     * Copies the folder in O(1) time, e.g. for saving. The copy shares the current emails and entry times, and its
+     * contents and version are read together, so the copy holds exactly that version of the folder.
+     * @return the snapshot
+     */
+    synchronized Snapshot snapshot() {
+        return new Snapshot(this, new Folder(emails, entryTimes, name, currentSortingMethod), version);
+    }
+
+    /**
+     * Returns an immutable snapshot of the emails in the folder. Taking a snapshot is O(1) and later changes
+     * to the folder never affect a snapshot that has already been returned.
+     * @return the current emails in the folder
+     */
+    public List<Email> getEmails() {
         return emails;
     }
 
-    public void setEmails(ArrayList<Email> emails) {
-        this.emails = emails;
+    /**
+     * Returns when each email was put in the folder, in the order of getEmails(). Read both from the copy of a
+     * snapshot() to get times that match the emails, since the folder may change between two calls.
+     * @return the entry times in milliseconds
+     */
+    public synchronized List<Long> getEntryTimes() {
+        return entryTimes;
+    }
+
+    public synchronized void setEmails(List<Email> emails) {
+        PersistentList<Email> next = PersistentList.of(emails);
+        // Emails already in the folder keep the time they were put in it
+        IdentityHashMap<Email, Long> entered = new IdentityHashMap<>();
+        Iterator<Long> times = entryTimes.iterator();
+        for (Email email : this.emails) {
+            entered.putIfAbsent(email, times.next());
+        }
+        long now = System.currentTimeMillis();
+        Long[] nextTimes = new Long[next.size()];
+        for (int i = 0; i < nextTimes.length; i++) {
+            nextTimes[i] = entered.getOrDefault(next.get(i), now);
+        }
+        PersistentList<Long> nextEntryTimes = PersistentList.of(nextTimes);
+        recount(next, nextEntryTimes);
+        publish(next, nextEntryTimes);
     }
 
     // Getter and setter for name
@@ -40,8 +138,9 @@ public class Folder implements Serializable {
         return name;
     }
 
-    public void setName(String name) {
+    public synchronized void setName(String name) {
         this.name = name;
+        version++;
     }
 
     // Getter and setter for sorting method
@@ -49,16 +148,91 @@ public class Folder implements Serializable {
         return currentSortingMethod;
     }
 
-    public void setCurrentSortingMethod(String currentSortingMethod) {
+    public synchronized void setCurrentSortingMethod(String currentSortingMethod) {
         this.currentSortingMethod = currentSortingMethod;
+        version++;
+    }
+
+    /**
+     * Returns a counter that goes up every time the folder changes, used to find folders changed since a save.
+     * The counter is raised after the new emails are published, so a caller that reads the version and then
+     * the emails sees at least the emails of that version.
+     * @return the current version of the folder
+     */
+    public long getVersion() {
+        return version;
+    }
+
+    /**
+     * Returns the folder's message count, unread count, total size and oldest/newest timestamps in O(1) time
+     * @return the summary of the current version of the folder
+     */
+    public FolderSummary getSummary() {
+        return summary;
+    }
+
+    /**
+     * Returns the root hash of the folder's Merkle tree, which is the same for any two folders holding the same
+     * emails (see FolderDigest)
+     * @return the root hash
+     */
+    public synchronized long getDigest() {
+        return digest.getRoot();
+    }
+
+    /**
+     * Returns the hashes of the children of some nodes of the folder's Merkle tree
+     * @param level the level of the parent nodes
+     * @param nodes the indices of the parent nodes
+     * @return FolderDigest.FANOUT hashes per parent
+     */
+    public synchronized long[] getDigestChildren(int level, int[] nodes) {
+        return digest.getChildren(level, nodes);
+    }
+
+    /**
+     * Returns the emails in one bucket of the folder's Merkle tree with their content hashes
+     * @param bucket the bucket index
+     * @return the leaves of the bucket
+     */
+    public synchronized List<FolderDigest.Leaf> getDigestBucket(int bucket) {
+        return digest.getBucket(bucket);
+    }
+
+    /**
+     * Checks whether an email is in the folder in O(1) time
+     * @param email the email to look for
+     * @return true if the email is in the current version of the folder
+     */
+    public synchronized boolean contains(Email email) {
+        return members.containsKey(email);
+    }
+
+    /**
+     * Marks an email in this folder as read or unread, keeping the folder's unread count in step.
+     * Emails held by a folder should be marked through this method rather than Email.setRead.
+     * @param email the email to mark
+     * @param read true to mark it read, false to mark it unread
+     */
+    public synchronized void setRead(Email email, boolean read) {
+        if (email.isRead() == read || !members.containsKey(email)) {
+            return;
+        }
+        account(email, -1);
+        email.setRead(read);
+        account(email, 1);
+        summary = buildSummary(emails);
+        version++;
     }
 
     /**
      * Adds an email to the folder according to the current sorting method
      * @param email the email to add
      */
-    public void addEmail(Email email) {
-        emails.add(email);
+    public synchronized void addEmail(Email email) {
+        long now = System.currentTimeMillis();
+        account(email, 1, now);
+        publish(emails.plus(email), entryTimes.plus(now));
         System.out.println("Email added successfully.");
     }
 
@@ -67,47 +241,272 @@ public class Folder implements Serializable {
      * @param index the index of the email to remove
      * @return the removed email
      */
-    public Email removeEmail(int index) {
+    public synchronized Email removeEmail(int index) {
         // Check index is not less than zero or greater than the size of the list
         if (index >= 0 && index < emails.size()) {
-            return emails.remove(index);
+            Email removed = emails.get(index);
+            account(removed, -1, entryTimes.get(index));
+            publish(emails.minus(index), entryTimes.minus(index));
+            return removed;
         }
         return null; // Return null if index is invalid
     }
 
-    // Sorting methods using comparators
+    /**
+     * Removes a specific email from the folder
+     * @param email the email to remove
+     * @return true if the email was in the folder and has been removed
+     */
+    public synchronized boolean removeEmail(Email email) {
+        if (!members.containsKey(email)) {
+            return false; // Skip the O(n) search for emails that are not here
+        }
+        return removeEmail(emails.indexOf(email)) != null;
+    }
+
+    /**
+     * Removes some emails and adds others as a single change, rebuilding the list once instead of once per email
+     * @param removed the emails to remove (emails not in the folder are ignored)
+     * @param added the emails to add
+     * @return the number of emails removed
+     */
+    public synchronized int replaceEmails(Collection<Email> removed, List<Email> added) {
+        Set<Email> toRemove = Collections.newSetFromMap(new IdentityHashMap<>());
+        toRemove.addAll(removed);
+        List<Email> next = new ArrayList<>(emails.size() + added.size());
+        List<Long> nextTimes = new ArrayList<>(emails.size() + added.size());
+        int removedCount = 0;
+        Iterator<Long> times = entryTimes.iterator();
+        for (Email email : emails) {
+            long entered = times.next();
+            if (toRemove.remove(email)) {
+                account(email, -1, entered);
+                removedCount++;
+            } else {
+                next.add(email);
+                nextTimes.add(entered);
+            }
+        }
+        long now = System.currentTimeMillis();
+        for (Email email : added) {
+            account(email, 1, now);
+            next.add(email);
+            nextTimes.add(now);
+        }
+        publish(PersistentList.of(next), PersistentList.of(nextTimes));
+        return removedCount;
+    }
+
+    /**
+     * Removes emails by position, but only if the folder has not changed since the given version was read.
+     * Callers can pick the emails to remove from a snapshot without holding the lock and then remove them here in
+     * O(k log n) time, so the lock is held only briefly.
+     * @param snapshot the version of the emails the positions refer to, as returned by getEmails()
+     * @param positions the positions to remove, in ascending order
+     * @return the new version of the emails, or null if the folder changed since the snapshot (nothing is removed)
+     */
+    public synchronized List<Email> removeEmails(List<Email> snapshot, int[] positions) {
+        if (emails != snapshot) {
+            return null;
+        }
+        PersistentList<Email> next = emails;
+        PersistentList<Long> nextTimes = entryTimes;
+        // Remove from the back so the remaining positions stay valid
+        for (int i = positions.length - 1; i >= 0; i--) {
+            account(next.get(positions[i]), -1, nextTimes.get(positions[i]));
+            next = next.minus(positions[i]);
+            nextTimes = nextTimes.minus(positions[i]);
+        }
+        publish(next, nextTimes);
+        return next;
+    }
+
+    /**
+     * Removes every email from the folder
+     * @return the number of emails removed
+     */
+    public synchronized int clearEmails() {
+        int removed = emails.size();
+        recount(PersistentList.empty(), PersistentList.empty());
+        publish(PersistentList.empty(), PersistentList.empty());
+        return removed;
+    }
+
+    // Sorting methods; these choose the order of getSortedEmails() and leave the folder itself untouched
 
     /**
      * Sorts emails alphabetically by subject in ascending order.
      */
     public void sortBySubjectAscending() {
-        emails.sort(Comparator.comparing(Email::getSubject));
-        currentSortingMethod = "subjectAscending";
+        setCurrentSortingMethod("subjectAscending");
     }
 
     /**
      * Sorts emails alphabetically by subject in descending order.
      */
     public void sortBySubjectDescending() {
-        // Reverse comparison order for descending order; method is compare(T o1, T o2) -> compare(T o2, T o1)
-        emails.sort((e1, e2) -> e2.getSubject().compareTo(e1.getSubject()));
-        currentSortingMethod = "subjectDescending";
+        setCurrentSortingMethod("subjectDescending");
     }
 
     /**
      * Sorts emails by date in ascending order.
      */
     public void sortByDateAscending() {
-        emails.sort(Comparator.comparing(Email::getTimestamp));
-        currentSortingMethod = "dateAscending";
+        setCurrentSortingMethod("dateAscending");
     }
 
     /**
      * Sorts emails by date in descending order.
      */
     public void sortByDateDescending() {
-        // Reverse comparison order for descending order; method is compare(T o1, T o2) -> compare(T o2, T o1)
-        emails.sort((e1, e2) -> e2.getTimestamp().compareTo(e1.getTimestamp()));
-        currentSortingMethod = "dateDescending";
+        setCurrentSortingMethod("dateDescending");
+    }
+
+    /**
+     * Returns the emails in the folder's current sorting method
+     * @return a sorted view of the current version of the folder
+     */
+    public SortView getSortedEmails() {
+        return getSortView(SortView.criteriaFor(currentSortingMethod));
+    }
+
+    /**
+     * Returns the emails of the current version of the folder in any order, without changing the folder or the
+     * order seen by anyone else. Views are cached until the folder changes.
+     * @param criteria the sort keys, most significant first
+     * @return a sorted view of the current version of the folder
+     */
+    public SortView getSortView(List<SortView.Criterion> criteria) {
+        return sortViews.get(emails, criteria);
+    }
+
+    /**
+     * Helper Function to publish a new version of the emails; callers must hold the folder's lock
+     * @param next the new emails
+     * @param nextEntryTimes when each of the new emails was put in the folder
+     */
+    private void publish(PersistentList<Email> next, PersistentList<Long> nextEntryTimes) {
+        entryTimes = nextEntryTimes;
+        emails = next;
+        summary = buildSummary(next);
+        version++;
+    }
+
+    /**
+     * Helper Function to add (sign 1) or remove (sign -1) one email from the running totals, the digest and the
+     * membership counts
+     * @param email the email being added or removed
+     * @param sign 1 when adding, -1 when removing
+     * @param enteredMillis when the email was put in the folder
+     */
+    private void account(Email email, int sign, long enteredMillis) {
+        entryCounts.merge(enteredMillis, sign, (a, b) -> a + b == 0 ? null : a + b);
+        account(email, sign);
+    }
+
+    /**
+     * Helper Function to add (sign 1) or remove (sign -1) one email from the running totals that depend only on
+     * the email itself, used on its own when an email in the folder changes
+     * @param email the email being added or removed
+     * @param sign 1 when adding, -1 when removing
+     */
+    private void account(Email email, int sign) {
+        if (!email.isRead()) {
+            unreadCount += sign;
+        }
+        totalBytes += sign * email.getSize();
+        timestampCounts.merge(email.getTimestamp().getTimeInMillis(), sign, (a, b) -> a + b == 0 ? null : a + b);
+        members.merge(email, sign, (a, b) -> a + b == 0 ? null : a + b);
+        if (sign > 0) {
+            digest.add(email);
+        } else {
+            digest.remove(email);
+        }
+    }
+
+    /**
+     * Helper Function to rebuild the running totals from scratch, used when the whole list is replaced
+     * @param next the emails the totals should describe
+     * @param nextEntryTimes when each of the emails was put in the folder
+     */
+    private void recount(List<Email> next, List<Long> nextEntryTimes) {
+        unreadCount = 0;
+        totalBytes = 0;
+        timestampCounts = new TreeMap<>();
+        entryCounts = new TreeMap<>();
+        digest = new FolderDigest();
+        members = new IdentityHashMap<>();
+        Iterator<Long> times = nextEntryTimes.iterator();
+        for (Email email : next) {
+            account(email, 1, times.next());
+        }
+        summary = buildSummary(next);
+    }
+
+    /**
+     * Helper Function to turn the running totals into an immutable summary
+     * @param next the emails the totals describe
+     * @return the summary
+     */
+    private FolderSummary buildSummary(List<Email> next) {
+        if (timestampCounts.isEmpty()) {
+            return FolderSummary.EMPTY;
+        }
+        return new FolderSummary(next.size(), unreadCount, totalBytes, timestampCounts.firstKey(),
+                timestampCounts.lastKey(), entryCounts.firstKey());
+    }
+
+    /**
+     * Writes the folder in the same form as earlier versions (emails as an ArrayList), plus the entry times
+     * The lock is only held while the fields are read, so writers are not blocked while the emails are written.
+     * @param out the stream to write to
+     */
+    @Serial
+    private void writeObject(ObjectOutputStream out) throws IOException {
+        PersistentList<Email> snapshot;
+        PersistentList<Long> snapshotTimes;
+        String savedName;
+        String savedSortingMethod;
+        synchronized (this) {
+            snapshot = emails;
+            snapshotTimes = entryTimes;
+            savedName = name;
+            savedSortingMethod = currentSortingMethod;
+        }
+        ObjectOutputStream.PutField fields = out.putFields();
+        fields.put("emails", new ArrayList<>(snapshot));
+        fields.put("name", savedName);
+        fields.put("currentSortingMethod", savedSortingMethod);
+        long[] times = new long[snapshotTimes.size()];
+        int i = 0;
+        for (long time : snapshotTimes) {
+            times[i++] = time;
+        }
+        fields.put("entryTimes", times);
+        out.writeFields();
+    }
+
+    /**
+     * Reads a folder written by writeObject or by earlier versions. Emails from saves made before entry times
+     * were kept count as being put in the folder when it is loaded.
+     * @param in the stream to read from
+     */
+    @Serial
+    @SuppressWarnings("unchecked")
+    private void readObject(ObjectInputStream in) throws IOException, ClassNotFoundException {
+        ObjectInputStream.GetField fields = in.readFields();
+        ArrayList<Email> saved = (ArrayList<Email>) fields.get("emails", null);
+        emails = saved == null ? PersistentList.empty() : PersistentList.of(saved);
+        name = (String) fields.get("name", null);
+        currentSortingMethod = (String) fields.get("currentSortingMethod", "dateDescending");
+        long[] savedTimes = (long[]) fields.get("entryTimes", null);
+        Long[] times = new Long[emails.size()];
+        long now = System.currentTimeMillis();
+        for (int i = 0; i < times.length; i++) {
+            times[i] = savedTimes != null && savedTimes.length == times.length ? savedTimes[i] : now;
+        }
+        entryTimes = PersistentList.of(times);
+        sortViews = new SortView.Cache();
+        recount(emails, entryTimes);
     }
 }
\ No newline at end of file
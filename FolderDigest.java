@@ -0,0 +1,134 @@
+import java.util.ArrayList;
+import java.util.List;
+
+/**
+ * FolderDigest is a Merkle tree over the emails of one folder, used to find where two copies of a folder differ
+ * without comparing every email. The tree has a fixed shape: a root, then levels of 16, 256 and 4096 nodes, and
+ * each email is a leaf under one of the 4096 bottom nodes (buckets), chosen by a hash of its id. Every node holds
+ * the sum of the content hashes of the leaves below it, so adding or removing an email updates one node per
+ * level in O(1) time and two folders holding the same emails always have identical trees, whatever their order.
+ *
+ * @author Kenny
+ **/
+public class FolderDigest {
+    public static final int FANOUT = 16; // Children per node
+    public static final int DEPTH = 3; // Levels below the root
+    public static final int BUCKETS = 4096; // FANOUT^DEPTH bottom nodes
+
+    /**
+     * An email in a bucket together with the content hash it was added with
+     * @param email the email
+     * @param hash its content hash when it was added
+     */
+    public record Leaf(Email email, long hash) {
+    }
+
+    private final long[][] levels; // levels[d][i] = sum of the leaf hashes under node i of level d
+    private final ArrayList<Leaf>[] buckets; // Leaves of each bucket, created when first needed
+
+    /**
+     * Constructs the digest of an empty folder
+     */
+    @SuppressWarnings({"unchecked", "rawtypes"})
+    public FolderDigest() {
+        this.levels = new long[DEPTH + 1][];
+        for (int level = 0, width = 1; level <= DEPTH; level++, width *= FANOUT) {
+            levels[level] = new long[width];
+        }
+        this.buckets = new ArrayList[BUCKETS];
+    }
+
+    /**
+     * Adds an email to the tree
+     * @param email the email being added to the folder
+     */
+    public void add(Email email) {
+        int bucket = bucketOf(email.getId());
+        long hash = email.getContentHash();
+        if (buckets[bucket] == null) {
+            buckets[bucket] = new ArrayList<>(2);
+        }
+        buckets[bucket].add(new Leaf(email, hash));
+        update(bucket, hash);
+    }
+
+    /**
+     * Removes an email from the tree. The hash recorded when it was added is subtracted, so the tree stays right
+     * even if the email was changed while it was in the folder.
+     * @param email the email being removed from the folder
+     */
+    public void remove(Email email) {
+        ArrayList<Leaf> leaves = buckets[bucketOf(email.getId())];
+        if (leaves == null) {
+            return;
+        }
+        for (int i = 0; i < leaves.size(); i++) {
+            if (leaves.get(i).email() == email) {
+                update(bucketOf(email.getId()), -leaves.remove(i).hash());
+                return;
+            }
+        }
+    }
+
+    /**
+     * Returns the hash of the root, the sum of every leaf hash in the folder
+     * @return the root hash (0 for an empty folder)
+     */
+    public long getRoot() {
+        return levels[0][0];
+    }
+
+    /**
+     * Returns the hashes of the children of some nodes of one level
+     * @param level the level of the parent nodes (0 for the root, up to DEPTH - 1)
+     * @param nodes the indices of the parent nodes on that level
+     * @return FANOUT hashes per parent, in the order of nodes; the children of node n are nodes
+     *         n * FANOUT to n * FANOUT + FANOUT - 1 of the next level
+     */
+    public long[] getChildren(int level, int[] nodes) {
+        if (level < 0 || level >= DEPTH) {
+            throw new IllegalArgumentException("Invalid digest level: " + level);
+        }
+        long[] children = new long[nodes.length * FANOUT];
+        for (int i = 0; i < nodes.length; i++) {
+            System.arraycopy(levels[level + 1], nodes[i] * FANOUT, children, i * FANOUT, FANOUT);
+        }
+        return children;
+    }
+
+    /**
+     * Returns the leaves of one bucket
+     * @param bucket the index of the bucket (a node of level DEPTH)
+     * @return a copy of the bucket's leaves
+     */
+    public List<Leaf> getBucket(int bucket) {
+        return buckets[bucket] == null ? List.of() : List.copyOf(buckets[bucket]);
+    }
+
+    /**
+     * Returns the bucket an email id belongs to. The result only depends on the id, so every copy of a mailbox
+     * puts an email in the same bucket.
+     * @param id the email id
+     * @return the bucket index, from 0 to BUCKETS - 1
+     */
+    public static int bucketOf(String id) {
+        // Spread the bits of String.hashCode (which is the same on every JVM) before taking the top 12 bits
+        long h = id.hashCode() * 0x9E3779B97F4A7C15L;
+        h ^= h >>> 29;
+        h *= 0xBF58476D1CE4E5B9L;
+        return (int) (h >>> (64 - 12));
+    }
+
+    /**
+     * Helper Function to add a hash to a bucket and every node above it
+     * @param bucket the bucket index
+     * @param delta the hash to add (negated when removing)
+     */
+    private void update(int bucket, long delta) {
+        int node = bucket;
+        for (int level = DEPTH; level >= 0; level--) {
+            levels[level][node] += delta;
+            node /= FANOUT;
+        }
+    }
+}
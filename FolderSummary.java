@@ -0,0 +1,69 @@
+import java.util.GregorianCalendar;
+
+/**
+ * FolderSummary is an immutable snapshot of a folder's running totals. Folders keep these totals up to date as
+ * emails are added and removed, so reading a summary never walks the emails.
+ *
+ * @param messageCount the number of emails in the folder
+ * @param unreadCount the number of unread emails in the folder
+ * @param totalBytes the combined size of the emails in bytes
+ * @param oldestMillis the timestamp of the oldest email in milliseconds (0 if the folder is empty)
+ * @param newestMillis the timestamp of the newest email in milliseconds (0 if the folder is empty)
+ * @param oldestEntryMillis when the email that has been in the folder longest was put there, in milliseconds
+ *                          (0 if the folder is empty)
+ * @author Kenny
+ **/
+public record FolderSummary(int messageCount, int unreadCount, long totalBytes, long oldestMillis,
+                            long newestMillis, long oldestEntryMillis) {
+    /**
+     * The summary of an empty folder
+     */
+    public static final FolderSummary EMPTY = new FolderSummary(0, 0, 0, 0, 0, 0);
+
+    /**
+     * Returns the timestamp of the oldest email
+     * @return the oldest timestamp, or null if the folder is empty
+     */
+    public GregorianCalendar getOldest() {
+        return messageCount == 0 ? null : toCalendar(oldestMillis);
+    }
+
+    /**
+     * Returns the timestamp of the newest email
+     * @return the newest timestamp, or null if the folder is empty
+     */
+    public GregorianCalendar getNewest() {
+        return messageCount == 0 ? null : toCalendar(newestMillis);
+    }
+
+    /**
+     * Formats the summary for display, e.g. "12 messages, 3 unread, 4.1 KB"
+     * @return the formatted summary
+     */
+    @Override
+    public String toString() {
+        return messageCount + (messageCount == 1 ? " message, " : " messages, ") + unreadCount + " unread, "
+                + formatBytes(totalBytes);
+    }
+
+    /**
+     * Formats a byte count using B, KB or MB
+     * @param bytes the number of bytes
+     * @return the formatted size
+     */
+    public static String formatBytes(long bytes) {
+        if (bytes < 1024) {
+            return bytes + " B";
+        }
+        if (bytes < 1024 * 1024) {
+            return String.format("%.1f KB", bytes / 1024.0);
+        }
+        return String.format("%.1f MB", bytes / (1024.0 * 1024.0));
+    }
+
+    private static GregorianCalendar toCalendar(long millis) {
+        GregorianCalendar calendar = new GregorianCalendar();
+        calendar.setTimeInMillis(millis);
+        return calendar;
+    }
+}
@@ -0,0 +1,179 @@
+import java.util.ArrayDeque;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.HashMap;
+import java.util.Locale;
+
+/**
+ * KeywordMatcher is an Aho-Corasick automaton that finds every occurrence of a fixed set of keywords
+ * in a single left-to-right pass over the text, no matter how many keywords were added.
+ * Matching is case-insensitive: keywords and text are both folded to lower case.
+ *
+ * @author Kenny
+ **/
+public class KeywordMatcher {
+    /**
+     * Callback used to report matches while scanning
+     */
+    public interface MatchListener {
+        /**
+         * Called once for every keyword occurrence found in the text
+         * @param keywordId the id returned by {@link #addKeyword(String)} for the matched keyword
+         */
+        void onMatch(int keywordId);
+    }
+
+    private final ArrayList<HashMap<Character, Integer>> transitions; // Trie edges (goto function)
+    private final ArrayList<int[]> outputs; // Keyword ids that end at each state
+    private final HashMap<String, Integer> keywordIds; // Folded keyword -> id (deduplicates keywords)
+    private int[] failure; // Failure links, built by compile()
+    private boolean compiled;
+
+    /**
+     * Constructs an empty matcher containing only the root state
+     */
+    public KeywordMatcher() {
+        this.transitions = new ArrayList<>();
+        this.outputs = new ArrayList<>();
+        this.keywordIds = new HashMap<>();
+        newState();
+    }
+
+    /**
+     * Adds a keyword to the automaton. Adding the same keyword twice returns the same id.
+     * @param keyword the keyword to match (case-insensitive)
+     * @return the id reported to the listener when the keyword is found, or -1 if the keyword is blank
+     */
+    public int addKeyword(String keyword) {
+        if (compiled) {
+            throw new IllegalStateException("Cannot add keywords after the matcher has been compiled.");
+        }
+        String folded = fold(keyword).trim();
+        if (folded.isEmpty()) {
+            return -1;
+        }
+        Integer existing = keywordIds.get(folded);
+        if (existing != null) {
+            return existing;
+        }
+        int id = keywordIds.size();
+        keywordIds.put(folded, id);
+
+        // Walk (and extend) the trie one character at a time
+        int state = 0;
+        for (int i = 0; i < folded.length(); i++) {
+            char c = folded.charAt(i);
+            Integer next = transitions.get(state).get(c);
+            if (next == null) {
+                next = newState();
+                transitions.get(state).put(c, next);
+            }
+            state = next;
+        }
+        outputs.set(state, append(outputs.get(state), id));
+        return id;
+    }
+
+    /**
+     * Builds the failure links with a breadth-first walk of the trie. Must be called before scan().
+     */
+    public void compile() {
+        failure = new int[transitions.size()];
+        ArrayDeque<Integer> queue = new ArrayDeque<>();
+
+        // Children of the root always fail back to the root
+        for (int child : transitions.get(0).values()) {
+            failure[child] = 0;
+            queue.add(child);
+        }
+        while (!queue.isEmpty()) {
+            int state = queue.poll();
+            for (var edge : transitions.get(state).entrySet()) {
+                char c = edge.getKey();
+                int child = edge.getValue();
+                // Follow the parent's failure chain until a state with the same edge is found
+                int fallback = failure[state];
+                while (fallback != 0 && !transitions.get(fallback).containsKey(c)) {
+                    fallback = failure[fallback];
+                }
+                Integer target = transitions.get(fallback).get(c);
+                failure[child] = (target != null && target != child) ? target : 0;
+                // A state also matches everything its failure state matches
+                int[] inherited = outputs.get(failure[child]);
+                for (int id : inherited) {
+                    outputs.set(child, append(outputs.get(child), id));
+                }
+                queue.add(child);
+            }
+        }
+        compiled = true;
+    }
+
+    /**
+     * Scans the text once and reports every keyword occurrence to the listener
+     * @param text the text to scan (null is treated as empty)
+     * @param listener the listener to notify of matches
+     */
+    public void scan(String text, MatchListener listener) {
+        if (!compiled) {
+            throw new IllegalStateException("Matcher must be compiled before scanning.");
+        }
+        if (text == null || keywordIds.isEmpty()) {
+            return;
+        }
+        String folded = fold(text);
+        int state = 0;
+        for (int i = 0; i < folded.length(); i++) {
+            char c = folded.charAt(i);
+            // On a mismatch, fall back along the failure links instead of restarting
+            Integer next = transitions.get(state).get(c);
+            while (next == null && state != 0) {
+                state = failure[state];
+                next = transitions.get(state).get(c);
+            }
+            state = next == null ? 0 : next;
+            for (int id : outputs.get(state)) {
+                listener.onMatch(id);
+            }
+        }
+    }
+
+    /**
+     * Returns the number of distinct keywords in the matcher
+     * @return the keyword count
+     */
+    public int size() {
+        return keywordIds.size();
+    }
+
+    /**
+     * Helper Function to allocate a new trie state
+     * @return the index of the new state
+     */
+    private int newState() {
+        transitions.add(new HashMap<>());
+        outputs.add(new int[0]);
+        return transitions.size() - 1;
+    }
+
+    /**
+     * Helper Function to append an id to an output array
+     * @param ids the existing ids
+     * @param id the id to append
+     * @return a new array containing ids followed by id
+     */
+    private static int[] append(int[] ids, int id) {
+        int[] result = Arrays.copyOf(ids, ids.length + 1);
+        result[ids.length] = id;
+        return result;
+    }
+
+    /**
+     * Folds text to lower case so matching ignores case
+     * @param text the text to fold
+     * @return the folded text
+     */
+    static String fold(String text) {
+        return text.toLowerCase(Locale.ROOT);
+    }
+}
@@ -1,10 +1,18 @@
 import java.io.*;
+import java.nio.file.InvalidPathException;
+import java.nio.file.Paths;
 import java.util.ArrayList;
+import java.util.Collection;
+import java.util.GregorianCalendar;
+import java.util.List;
+import java.util.Locale;
 import java.util.Scanner;
+import java.util.concurrent.ConcurrentHashMap;
+import java.text.ParseException;
 import java.text.SimpleDateFormat;
 
 /**
- * Mailbox class represents an email box and contains all the folders along with the inbox and trash
+ * Mailbox class represents an email box and contains all the folders along with the inbox, trash and outbox
  *
  * @author Kenny
  **/
@@ -14,25 +22,245 @@ public class Mailbox implements Serializable {
     private static final long serialVersionUID = 1L;
     private final Folder inbox;
     private final Folder trash;
+    private Folder outbox; // Scheduled emails waiting to be sent (missing from saves made before it existed)
     private final ArrayList<Folder> folders;
+    private RuleEngine rules;
+    private ArrayList<RetentionPolicy> retentionPolicies; // Missing from saves made before retention existed
+    // Lookup structures rebuilt from the folders whenever a mailbox is created or loaded
+    private transient ConcurrentHashMap<String, Folder> folderLookup; // Folded name -> custom folder
+    private transient TypeaheadIndex folderNameIndex;
+    private transient TypeaheadIndex subjectIndex;
+    private transient TimingWheel<Email> scheduler; // Releases outbox emails when their send time comes
+    private transient MaintenanceService maintenance; // Purges mail past its retention limits in the background
     public static Mailbox mailbox;
+    private static final String LEGACY_SAVE_FILE = "mailbox.obj";
+    private static final MailboxStore store = new MailboxStore(Paths.get("mailbox.store"));
+    static final int BUILT_IN_FOLDERS = 3; // Inbox, Trash and Outbox
+    private static final long SCHEDULER_TICK_MILLIS = 1000; // Scheduled emails are sent to the nearest second
+    private static final long MAINTENANCE_INTERVAL_MINUTES = 10;
 
     /**
-     * Private constructor and initializes the default folders of Inbox, Trash, and any custom folders
+     * Private constructor and initializes the default folders of Inbox, Trash, Outbox, and any custom folders
      */
     private Mailbox() {
-        this.inbox = new Folder("Inbox");
-        this.trash = new Folder("Trash");
-        this.folders = new ArrayList<>();
+        this(new Folder("Inbox"), new Folder("Trash"), new Folder("Outbox"), new ArrayList<>(), new RuleEngine(),
+                new ArrayList<>());
     }
 
     /**
-     * Initializes mailbox if a saved file of "mailbox.obj" exist, otherwise create a new mailbox instance
+     * Private constructor for a mailbox made from existing folders and rules
+     * @param inbox the inbox folder
+     * @param trash the trash folder
+     * @param outbox the outbox folder
+     * @param folders the custom folders
+     * @param rules the filing rules
+     * @param retentionPolicies the retention policies
+     */
+    private Mailbox(Folder inbox, Folder trash, Folder outbox, ArrayList<Folder> folders, RuleEngine rules,
+                    ArrayList<RetentionPolicy> retentionPolicies) {
+        this.inbox = inbox;
+        this.trash = trash;
+        this.outbox = outbox;
+        this.folders = folders;
+        this.rules = rules;
+        this.retentionPolicies = retentionPolicies;
+        buildIndexes();
+    }
+
+    /**
+     * Creates a new mailbox with only the built-in folders, e.g. to sync into a store that does not exist yet
+     * @return the empty mailbox
+     */
+    static Mailbox createEmpty() {
+        return new Mailbox();
+    }
+
+    /**
+     * Rebuilds a mailbox from the folders and rules read back from a MailboxStore checkpoint
+     * @param allFolders the folders in the order returned by getAllFolders()
+     * @param builtInFolders the number of built-in folders at the start of allFolders (2 for saves made before
+     *                       the Outbox existed)
+     * @param rules the filing rules (null if none were saved)
+     * @param retentionPolicies the retention policies (null if none were saved)
+     * @return the restored mailbox
+     */
+    static Mailbox restore(List<Folder> allFolders, int builtInFolders, RuleEngine rules,
+                           List<RetentionPolicy> retentionPolicies) {
+        Folder outbox = builtInFolders > 2 ? allFolders.get(2) : new Folder("Outbox");
+        ArrayList<Folder> customFolders = new ArrayList<>(allFolders.subList(builtInFolders, allFolders.size()));
+        if (rules == null) {
+            rules = new RuleEngine();
+        }
+        if (builtInFolders <= 2) {
+            renameClashingOutbox(customFolders, rules);
+        }
+        return new Mailbox(allFolders.get(0), allFolders.get(1), outbox, customFolders, rules,
+                retentionPolicies != null ? new ArrayList<>(retentionPolicies) : new ArrayList<>());
+    }
+
+    /**
+     * Returns every folder in a fixed order: Inbox, Trash, Outbox, then the custom folders
+     * @return a new list of all folders
+     */
+    synchronized List<Folder> getAllFolders() {
+        List<Folder> all = new ArrayList<>();
+        all.add(inbox);
+        all.add(trash);
+        all.add(outbox);
+        all.addAll(folders);
+        return all;
+    }
+
+    /**
+     * Snapshots every folder at one moment, in the order of getAllFolders(). Moving an email between folders
+     * holds the mailbox's lock, so an email being moved is in exactly one of the snapshots.
+     * @return the snapshot of each folder
+     */
+    synchronized List<Folder.Snapshot> snapshotAllFolders() {
+        List<Folder.Snapshot> snapshots = new ArrayList<>();
+        for (Folder folder : getAllFolders()) {
+            snapshots.add(folder.snapshot());
+        }
+        return snapshots;
+    }
+
+    /**
+     * Returns the engine holding the mailbox's filing rules
+     * @return the rule engine
+     */
+    RuleEngine getRuleEngine() {
+        return rules;
+    }
+
+    /**
+     * Returns the retention policies applied by the background maintenance
+     * @return a copy of the policies
+     */
+    synchronized List<RetentionPolicy> getRetentionPolicies() {
+        return new ArrayList<>(retentionPolicies);
+    }
+
+    /**
+     * Sets the retention policy of a folder, replacing any earlier policy for it. A policy without limits
+     * removes the folder's policy.
+     * @param policy the new policy
+     */
+    public synchronized void setRetentionPolicy(RetentionPolicy policy) {
+        retentionPolicies.removeIf(existing -> existing.getFolderName().equalsIgnoreCase(policy.getFolderName()));
+        if (policy.hasLimits()) {
+            retentionPolicies.add(policy);
+        }
+    }
+
+    /**
+     * Restores fields that were added after older saves were written
+     * @param in the stream the mailbox is read from
+     */
+    @Serial
+    private void readObject(ObjectInputStream in) throws IOException, ClassNotFoundException {
+        in.defaultReadObject();
+        if (rules == null) {
+            rules = new RuleEngine();
+        }
+        if (outbox == null) {
+            outbox = new Folder("Outbox");
+            renameClashingOutbox(folders, rules);
+        }
+        if (retentionPolicies == null) {
+            retentionPolicies = new ArrayList<>(); // Retention is opt-in, so older saves keep all their mail
+        }
+        buildIndexes();
+    }
+
+    /**
+     * Helper Function to rename a custom folder called "Outbox" from a save made before the built-in Outbox
+     * existed, since getFolder would always return the built-in one instead. The folder becomes "Outbox (1)", or
+     * the next free number, and filing rules that targeted it are pointed at the new name.
+     * @param customFolders the custom folders of the save
+     * @param rules the filing rules of the save
+     */
+    private static void renameClashingOutbox(List<Folder> customFolders, RuleEngine rules) {
+        for (Folder folder : customFolders) {
+            if (!folder.getName().equalsIgnoreCase("Outbox")) {
+                continue;
+            }
+            String newName;
+            int suffix = 1;
+            do {
+                newName = "Outbox (" + suffix++ + ")";
+            } while (containsFolderNamed(customFolders, newName));
+            for (FilingRule rule : rules.getRules()) {
+                if (rule.getTargetFolder().equalsIgnoreCase(folder.getName())) {
+                    rule.setTargetFolder(newName);
+                }
+            }
+            System.out.println("Folder \"" + folder.getName() + "\" renamed to \"" + newName
+                    + "\" to make room for the built-in Outbox.");
+            folder.setName(newName);
+        }
+    }
+
+    /**
+     * Helper Function to check whether a list of folders holds one with the given name, ignoring case
+     * @param folders the folders to search
+     * @param name the name to look for
+     * @return true if a folder has that name
+     */
+    private static boolean containsFolderNamed(List<Folder> folders, String name) {
+        for (Folder folder : folders) {
+            if (folder.getName().equalsIgnoreCase(name)) {
+                return true;
+            }
+        }
+        return false;
+    }
+
+    /**
+     * Builds the folder lookup and the typeahead indexes from the current folders and emails
+     */
+    private void buildIndexes() {
+        folderLookup = new ConcurrentHashMap<>(); // Also read by the scheduler thread when it delivers mail
+        folderNameIndex = new TypeaheadIndex();
+        subjectIndex = new TypeaheadIndex();
+        folderNameIndex.add(inbox.getName());
+        folderNameIndex.add(trash.getName());
+        folderNameIndex.add(outbox.getName());
+        indexSubjects(inbox);
+        indexSubjects(trash);
+        indexSubjects(outbox);
+        for (Folder folder : folders) {
+            folderLookup.put(folder.getName().toLowerCase(Locale.ROOT), folder);
+            folderNameIndex.add(folder.getName());
+            indexSubjects(folder);
+        }
+    }
+
+    /**
+     * Helper Function to add the subject of every email in a folder to the subject index
+     * @param folder the folder to index
+     */
+    private void indexSubjects(Folder folder) {
+        for (Email email : folder.getEmails()) {
+            subjectIndex.add(email.getSubject());
+        }
+    }
+
+    /**
+     * Initializes mailbox from the last checkpoint in "mailbox.store" if there is one, otherwise from an older
+     * "mailbox.obj" save if it exists, otherwise create a new mailbox instance
      */
     public static void initializeMailbox() {
         if (mailbox == null) {
-            File file = new File("mailbox.obj");
-            if (file.exists()) {
+            File file = new File(LEGACY_SAVE_FILE);
+            if (store.exists()) {
+                try {
+                    mailbox = store.load();
+                    System.out.println("Mailbox loaded from previous save.");
+                } catch (IOException e) {
+                    System.out.println("Error loading mailbox: " + e.getMessage());
+                    mailbox = new Mailbox();
+                }
+            } else if (file.exists()) {
                 try (ObjectInputStream ois = new ObjectInputStream(new FileInputStream(file))) {
                     mailbox = (Mailbox) ois.readObject();
                     System.out.println("Mailbox loaded from previous save.");
@@ -44,6 +272,62 @@ public class Mailbox implements Serializable {
                 System.out.println("Previous save not found, starting with an empty mailbox.");
                 mailbox = new Mailbox();
             }
+            mailbox.startScheduler();
+            mailbox.maintenance = new MaintenanceService(mailbox, store);
+            mailbox.maintenance.start(MAINTENANCE_INTERVAL_MINUTES);
+        }
+    }
+
+    /**
+     * Starts the scheduler thread and schedules every email waiting in the outbox. Emails whose send time
+     * passed while the program was not running are sent on the first tick.
+     */
+    private synchronized void startScheduler() {
+        if (scheduler != null) {
+            return;
+        }
+        long now = System.currentTimeMillis();
+        scheduler = new TimingWheel<>(SCHEDULER_TICK_MILLIS, now);
+        for (Email email : outbox.getEmails()) {
+            scheduler.schedule(email, email.getSendAt() != null ? email.getSendAt().getTimeInMillis() : now);
+        }
+        scheduler.start("scheduled-send", this::sendScheduledEmails);
+        if (scheduler.size() > 0) {
+            System.out.println(scheduler.size() + " scheduled email(s) waiting in Outbox.");
+        }
+    }
+
+    /**
+     * Schedules an email to be sent later. The email waits in the outbox until its send time and is then
+     * delivered like a newly composed email.
+     * @param email the email to send
+     * @param sendAt when to send the email (a time in the past sends it on the next tick)
+     */
+    public void scheduleEmail(Email email, GregorianCalendar sendAt) {
+        startScheduler();
+        email.setSendAt(sendAt);
+        outbox.addEmail(email);
+        subjectIndex.add(email.getSubject());
+        scheduler.schedule(email, sendAt.getTimeInMillis());
+    }
+
+    /**
+     * Helper Function called on the scheduler thread to deliver emails whose send time has come.
+     * An email that was deleted or moved out of the outbox after it became due is skipped.
+     * @param due the emails that became due
+     */
+    private void sendScheduledEmails(List<Email> due) {
+        for (Email email : due) {
+            synchronized (this) { // Hold the mailbox's lock so a checkpoint never sees the email in neither folder
+                if (!outbox.removeEmail(email)) {
+                    continue;
+                }
+                subjectIndex.remove(email.getSubject()); // deliverEmail indexes the subject again
+                email.setSendAt(null);
+                email.setTimestamp(new GregorianCalendar()); // Sent mail is dated when it actually goes out
+                deliverEmail(email);
+            }
+            System.out.println("Scheduled email \"" + email.getSubject() + "\" sent.");
         }
     }
 
@@ -51,9 +335,12 @@ public class Mailbox implements Serializable {
      * Adds a new folder to the mailbox if the folder does not already exist / not duplicate
      * @param folder the folder to be added
      */
-    public void addFolder(Folder folder) {
+    public synchronized void addFolder(Folder folder) {
         if (getFolder(folder.getName()) == null) {
             folders.add(folder);
+            folderLookup.put(folder.getName().toLowerCase(Locale.ROOT), folder);
+            folderNameIndex.add(folder.getName());
+            indexSubjects(folder);
             System.out.println("Folder added: " + folder.getName());
         } else {
             System.out.println("Error: Folder with this name already exists.");
@@ -64,9 +351,10 @@ public class Mailbox implements Serializable {
      * Removes a folder from the mailbox if it exists and is located within a custom folder (not in inbox/trash)
      * @param folderName the name of the folder to delete
      */
-    public void removeFolder(String folderName) {
-        // Check if the folder is "Inbox" or "Trash"
-        if (folderName.equalsIgnoreCase("Inbox") || folderName.equalsIgnoreCase("Trash")) {
+    public synchronized void removeFolder(String folderName) {
+        // Check if the folder is "Inbox", "Trash" or "Outbox"
+        if (folderName.equalsIgnoreCase("Inbox") || folderName.equalsIgnoreCase("Trash")
+                || folderName.equalsIgnoreCase("Outbox")) {
             System.out.println("Error: You cannot delete the " + folderName + " folder.");
             return;
         }
@@ -74,6 +362,11 @@ public class Mailbox implements Serializable {
         Folder folderToRemove = getFolder(folderName);
         if (folderToRemove != null) {
             folders.remove(folderToRemove);
+            folderLookup.remove(folderToRemove.getName().toLowerCase(Locale.ROOT));
+            folderNameIndex.remove(folderToRemove.getName());
+            for (Email email : folderToRemove.getEmails()) {
+                subjectIndex.remove(email.getSubject());
+            }
             System.out.println(folderName + " has been successfully deleted.");
         } else {
             System.out.println("Error: Folder not found.");
@@ -81,7 +374,8 @@ public class Mailbox implements Serializable {
     }
 
     /**
-     * Composes a new email and adds it to the inbox by prompting for basic email information
+     * Composes a new email by prompting for basic email information, then delivers it straight away or puts it
+     * in the outbox until the chosen send time
      */
     public void composeEmail() {
         Scanner scanner = new Scanner(System.in);
@@ -95,9 +389,155 @@ public class Mailbox implements Serializable {
         String subject = scanner.nextLine();
         System.out.print("Enter body: ");
         String body = scanner.nextLine();
+        System.out.print("Schedule send at M/d/yyyy h:mma (blank to send now): ");
+        String sendAtLine = scanner.nextLine();
 
         Email email = new Email(to, cc, bcc, subject, body);
-        inbox.addEmail(email);
+        if (sendAtLine.isBlank()) {
+            deliverEmail(email);
+            return;
+        }
+        SimpleDateFormat dateFormat = new SimpleDateFormat("M/d/yyyy h:mma", Locale.US);
+        dateFormat.setLenient(false);
+        GregorianCalendar sendAt = new GregorianCalendar();
+        try {
+            sendAt.setTime(dateFormat.parse(sendAtLine.trim().toUpperCase(Locale.ROOT)));
+        } catch (ParseException e) {
+            System.out.println("Error: Invalid send time, email not sent.");
+            return;
+        }
+        scheduleEmail(email, sendAt);
+        System.out.println("\"" + subject + "\" scheduled to send at " + dateFormat.format(sendAt.getTime()) + ".");
+    }
+
+    /**
+     * Delivers an incoming email, filing it into the folder chosen by the filing rules.
+     * Mail that matches no rule (or whose rule points at a folder that no longer exists) goes to the inbox.
+     * @param email the email to deliver
+     */
+    public void deliverEmail(Email email) {
+        Folder target = inbox;
+        String targetName = rules.findTargetFolder(email);
+        if (targetName != null) {
+            Folder ruleFolder = getFolder(targetName);
+            if (ruleFolder != null) {
+                target = ruleFolder;
+            } else {
+                System.out.println("Warning: Filing rule folder \"" + targetName + "\" not found, delivering to Inbox.");
+            }
+        }
+        target.addEmail(email);
+        subjectIndex.add(email.getSubject());
+        if (target != inbox) {
+            System.out.println("\"" + email.getSubject() + "\" filed into " + target.getName() + ".");
+        }
+    }
+
+    /**
+     * Adds a filing rule by prompting for the target folder, keywords and an optional date range
+     */
+    public void addFilingRule() {
+        Scanner scanner = new Scanner(System.in);
+        System.out.print("Enter target folder name: ");
+        String targetName = scanner.nextLine();
+        if (getFolder(targetName) == null) {
+            System.out.println("Error: Folder not found.");
+            printFolderSuggestions(targetName);
+            return;
+        }
+        System.out.print("Enter address keywords, comma separated (blank for any): ");
+        List<String> addressKeywords = splitKeywords(scanner.nextLine());
+        System.out.print("Enter subject keywords, comma separated (blank for any): ");
+        List<String> subjectKeywords = splitKeywords(scanner.nextLine());
+        System.out.print("Enter body keywords, comma separated (blank for any): ");
+        List<String> bodyKeywords = splitKeywords(scanner.nextLine());
+
+        FilingRule rule = new FilingRule(targetName, addressKeywords, subjectKeywords, bodyKeywords);
+        try {
+            System.out.print("Only mail on or after date M/d/yyyy (blank for any): ");
+            rule.setAfter(parseDate(scanner.nextLine()));
+            System.out.print("Only mail before date M/d/yyyy (blank for any): ");
+            rule.setBefore(parseDate(scanner.nextLine()));
+        } catch (ParseException e) {
+            System.out.println("Error: Invalid date, rule not added.");
+            return;
+        }
+        rules.addRule(rule);
+        System.out.println("Filing rule added: " + rule);
+    }
+
+    /**
+     * Exports a folder or the whole mailbox by prompting for the format, folder and target path
+     */
+    public void exportMail() {
+        Scanner scanner = new Scanner(System.in);
+        System.out.print("Enter export format (MBOX, EML, CSV): ");
+        MailboxExporter.Format format;
+        try {
+            format = MailboxExporter.Format.valueOf(scanner.nextLine().trim().toUpperCase(Locale.ROOT));
+        } catch (IllegalArgumentException e) {
+            System.out.println("Error: Unknown export format.");
+            return;
+        }
+        System.out.print("Enter folder name (blank for whole mailbox): ");
+        String folderName = scanner.nextLine();
+        System.out.print("Enter target path: ");
+        String target = scanner.nextLine();
+        if (target.isBlank()) {
+            System.out.println("Error: Invalid target path.");
+            return;
+        }
+
+        MailboxExporter exporter = new MailboxExporter();
+        try {
+            long exported;
+            if (folderName.isBlank()) {
+                exported = exporter.exportMailbox(this, format, Paths.get(target.trim()));
+            } else {
+                Folder folder = getFolder(folderName);
+                if (folder == null) {
+                    System.out.println("Error: Folder not found.");
+                    printFolderSuggestions(folderName);
+                    return;
+                }
+                exported = exporter.exportFolder(folder, format, Paths.get(target.trim()));
+            }
+            System.out.println(exported + " email(s) exported to " + target.trim() + ".");
+        } catch (IOException | InvalidPathException e) {
+            System.out.println("Error exporting mail: " + e.getMessage());
+        }
+    }
+
+    /**
+     * Helper Function to split a comma separated keyword list
+     * @param line the line entered by the user
+     * @return the non-blank keywords
+     */
+    private static List<String> splitKeywords(String line) {
+        List<String> keywords = new ArrayList<>();
+        for (String keyword : line.split(",")) {
+            if (!keyword.isBlank()) {
+                keywords.add(keyword.trim());
+            }
+        }
+        return keywords;
+    }
+
+    /**
+     * Helper Function to parse an optional M/d/yyyy date
+     * @param line the line entered by the user
+     * @return the parsed date, or null if the line is blank
+     * @throws ParseException if the date is not in M/d/yyyy form
+     */
+    private static GregorianCalendar parseDate(String line) throws ParseException {
+        if (line.isBlank()) {
+            return null;
+        }
+        SimpleDateFormat dateFormat = new SimpleDateFormat("M/d/yyyy");
+        dateFormat.setLenient(false);
+        GregorianCalendar date = new GregorianCalendar();
+        date.setTime(dateFormat.parse(line.trim()));
+        return date;
     }
 
     /**
@@ -108,20 +548,21 @@ public class Mailbox implements Serializable {
         Folder folder = findFolderContainingEmail(email); // Find the folder containing the email
         // Checking if folder was found
         if (folder != null) {
-            // Find index of the email within the folder
-            int index = folder.getEmails().indexOf(email);
-            // Checking if email was found within the folder
-            if (index != -1) {
-                // If found, remove the email from the folder
-                Email removedEmail = folder.removeEmail(index); // Remove email by index
-                // Check if email was successfully removed
-                if (removedEmail != null) {
+            // Deleting a scheduled email cancels it
+            if (folder == outbox) {
+                unschedule(email);
+            }
+            // Remove the email itself rather than an index, since the scheduler may change the outbox meanwhile
+            boolean removed;
+            synchronized (this) { // Hold the mailbox's lock so a checkpoint sees the email in exactly one folder
+                removed = folder.removeEmail(email);
+                if (removed) {
                     // If successfully removed, then add email to trash
-                    trash.addEmail(removedEmail);
-                    System.out.println("\"" + removedEmail.getSubject() + "\" has successfully been moved to the trash.");
-                } else {
-                    System.out.println("Error: Email not found in " + folder.getName() + ".");
+                    trash.addEmail(email);
                 }
+            }
+            if (removed) {
+                System.out.println("\"" + email.getSubject() + "\" has successfully been moved to the trash.");
             } else {
                 System.out.println("Error: Email not found in " + folder.getName() + ".");
             }
@@ -134,10 +575,13 @@ public class Mailbox implements Serializable {
      * Clears all the emails from the Trash folder and displays the number of items cleared
      */
     public void clearTrash() {
-        int numberOfEmails = trash.getEmails().size(); // Count the number of emails before clearing
+        List<Email> trashed = trash.getEmails();
+        int numberOfEmails = trash.clearEmails(); // Clear the trash, counting the number of emails cleared
+        for (Email email : trashed) {
+            subjectIndex.remove(email.getSubject());
+        }
 
         if (numberOfEmails > 0) {
-            trash.getEmails().clear(); // Clear the trash
             System.out.println(numberOfEmails + " item(s) successfully deleted.");
         } else {
             System.out.println("Trash folder is empty. There is nothing to delete.");
@@ -156,17 +600,120 @@ public class Mailbox implements Serializable {
             System.out.println("Error: Email not found.");
             return;
         }
+        // Emails only enter the outbox by being scheduled
+        if (target == outbox) {
+            System.out.println("Error: Emails cannot be moved into the Outbox.");
+            return;
+        }
+        // Moving a scheduled email out of the outbox cancels it
+        if (currentFolder == outbox) {
+            unschedule(email);
+        }
 
-        // Remove the email from its current folder
-        currentFolder.removeEmail(currentFolder.getEmails().indexOf(email));
-
-        // Add the email to the target folder
-        target.addEmail(email);
+        // Remove the email from its current folder and add it to the target folder under the mailbox's lock,
+        // so a checkpoint sees the email in exactly one of them
+        synchronized (this) {
+            if (!currentFolder.removeEmail(email)) {
+                System.out.println("Error: Email not found in " + currentFolder.getName() + ".");
+                return;
+            }
+            target.addEmail(email);
+        }
 
         // Confirmation message
         System.out.println("\"" + email.getSubject() + "\" successfully moved to " + target.getName() + ".");
     }
 
+    /**
+     * Removes and adds emails in one folder as a single change, keeping the subject index in step.
+     * Used to apply the changes found by MailboxSync.
+     * @param folder the folder to change
+     * @param removed the emails to remove
+     * @param added the emails to add
+     */
+    void replaceEmails(Folder folder, Collection<Email> removed, List<Email> added) {
+        folder.replaceEmails(removed, added);
+        for (Email email : removed) {
+            subjectIndex.remove(email.getSubject());
+        }
+        for (Email email : added) {
+            subjectIndex.add(email.getSubject());
+        }
+    }
+
+    /**
+     * Removes emails from a folder by position if the folder has not changed since the snapshot was taken,
+     * keeping the subject index in step. Used by MaintenanceService to purge mail in small batches.
+     * @param folder the folder to purge
+     * @param snapshot the version of the emails the positions refer to
+     * @param positions the positions to remove, in ascending order
+     * @return the new version of the emails, or null if the folder changed and nothing was removed
+     */
+    List<Email> purgeEmails(Folder folder, List<Email> snapshot, int[] positions) {
+        List<Email> next = folder.removeEmails(snapshot, positions);
+        if (next != null) {
+            for (int position : positions) {
+                subjectIndex.remove(snapshot.get(position).getSubject());
+            }
+        }
+        return next;
+    }
+
+    /**
+     * Sets a retention policy by prompting for the folder and its limits
+     */
+    public void setRetentionPolicy() {
+        Scanner scanner = new Scanner(System.in);
+        System.out.println("Retention policies:");
+        for (RetentionPolicy policy : getRetentionPolicies()) {
+            System.out.println(policy);
+        }
+        System.out.print("Enter folder name: ");
+        String folderName = scanner.nextLine();
+        Folder folder = getFolder(folderName);
+        if (folder == null) {
+            System.out.println("Error: Folder not found.");
+            printFolderSuggestions(folderName);
+            return;
+        }
+        int maxAgeDays;
+        double maxMegabytes;
+        try {
+            System.out.print("Keep mail for how many days (0 for no age limit): ");
+            maxAgeDays = Integer.parseInt(scanner.nextLine().trim());
+            System.out.print("Largest folder size in MB (0 for no size limit): ");
+            maxMegabytes = Double.parseDouble(scanner.nextLine().trim());
+        } catch (NumberFormatException e) {
+            System.out.println("Error: Invalid number, policy not changed.");
+            return;
+        }
+        RetentionPolicy policy = new RetentionPolicy(folder.getName(), maxAgeDays, (long) (maxMegabytes * 1024 * 1024));
+        setRetentionPolicy(policy);
+        System.out.println(policy.hasLimits() ? "Retention policy set: " + policy
+                : "Retention policy removed for " + folder.getName() + ".");
+    }
+
+    /**
+     * Runs a maintenance pass straight away and prints what it did
+     */
+    public void runMaintenance() {
+        if (maintenance == null) {
+            maintenance = new MaintenanceService(this, store);
+        }
+        System.out.println("Maintenance: " + maintenance.runPass() + ".");
+    }
+
+    /**
+     * Helper Function to cancel the schedule of an outbox email
+     * @param email the email to cancel
+     */
+    private void unschedule(Email email) {
+        if (scheduler != null) {
+            scheduler.cancel(email);
+        }
+        email.setSendAt(null);
+    }
+
     /**
      * Retrieves a holder by its name
      * @param name the name of the folder to retrieve
@@ -179,22 +726,53 @@ public class Mailbox implements Serializable {
         if (name.equalsIgnoreCase("Trash")) {
             return trash;
         }
-        // Iterate through custom folders to search for name
-        for (Folder folder : folders) {
-            if (folder.getName().equalsIgnoreCase(name)) {
-                return folder;
-            }
+        if (name.equalsIgnoreCase("Outbox")) {
+            return outbox;
+        }
+        // Look up custom folders by their case-folded name
+        return folderLookup.get(name.toLowerCase(Locale.ROOT));
+    }
+
+    /**
+     * Suggests folder names for a partially typed or misspelled name
+     * @param typed the text typed so far
+     * @param limit the maximum number of suggestions
+     * @return matching folder names, best first
+     */
+    public List<String> suggestFolderNames(String typed, int limit) {
+        return folderNameIndex.suggest(typed, limit);
+    }
+
+    /**
+     * Prints the closest folder names to a name that was not found, if there are any
+     * @param typed the folder name that was entered
+     */
+    private void printFolderSuggestions(String typed) {
+        List<String> suggestions = suggestFolderNames(typed, 5);
+        if (!suggestions.isEmpty()) {
+            System.out.println("Did you mean: " + String.join(", ", suggestions) + "?");
         }
-        return null;
     }
 
     /**
-     * Saves the current state of the mailbox to file (mailbox.obj file) to load on the next run of program
+     * Suggests subjects of emails in the mailbox for a partially typed or misspelled subject
+     * @param typed the text typed so far
+     * @param limit the maximum number of suggestions
+     * @return matching subjects, best first
+     */
+    public List<String> suggestSubjects(String typed, int limit) {
+        return subjectIndex.suggest(typed, limit);
+    }
+
+    /**
+     * Saves the current state of the mailbox to the "mailbox.store" checkpoint to load on the next run of program
+     * Only folders that changed since the last save are rewritten
      */
     public void saveMailbox() {
-        try (ObjectOutputStream oos = new ObjectOutputStream(new FileOutputStream("mailbox.obj"))) {
-            oos.writeObject(mailbox);
-            System.out.println("Mai.lbox saved");
+        try {
+            MailboxStore.CheckpointResult result = store.checkpoint(this);
+            System.out.println("Mailbox saved (" + result.foldersWritten() + " of " + result.foldersTotal()
+                    + " folders written).");
         } catch (IOException e) {
             System.out.println("Error saving mailbox: " + e.getMessage());
         }
@@ -213,10 +791,9 @@ public class Mailbox implements Serializable {
         while (true) {
             System.out.println("\nMailbox:");
             System.out.println("--------");
-            System.out.println("Inbox");
-            System.out.println("Trash");
-            for (Folder folder : mailbox.folders) {
-                System.out.println(folder.getName());
+            // Folder summaries are kept up to date by the folders, so printing them never walks the emails
+            for (Folder folder : mailbox.getAllFolders()) {
+                System.out.println(folder.getName() + " (" + folder.getSummary() + ")");
             }
             // List of choices
             System.out.println(); // Cleaner output, better readability
@@ -226,7 +803,12 @@ public class Mailbox implements Serializable {
             System.out.println("F – View folder");
             System.out.println("I – View Inbox");
             System.out.println("T – View Trash");
+            System.out.println("O – View Outbox");
             System.out.println("E – Empty Trash");
+            System.out.println("U – Add filing rule");
+            System.out.println("X – Export mail");
+            System.out.println("P – Set retention policy");
+            System.out.println("M – Run maintenance now");
             System.out.println("Q – Quit");
             System.out.print("Enter a user option: ");
             String option = scanner.nextLine().toUpperCase();
@@ -254,6 +836,7 @@ public class Mailbox implements Serializable {
                         handleFolderMenu(folder);
                     } else {
                         System.out.println("Folder not found.");
+                        mailbox.printFolderSuggestions(folderName);
                     }
                     break;
                 case "I":
@@ -262,9 +845,24 @@ public class Mailbox implements Serializable {
                 case "T":
                     handleFolderMenu(mailbox.trash);
                     break;
+                case "O":
+                    handleFolderMenu(mailbox.outbox);
+                    break;
                 case "E":
                     mailbox.clearTrash();
                     break;
+                case "U":
+                    mailbox.addFilingRule();
+                    break;
+                case "X":
+                    mailbox.exportMail();
+                    break;
+                case "P":
+                    mailbox.setRetentionPolicy();
+                    break;
+                case "M":
+                    mailbox.runMaintenance();
+                    break;
                 case "Q":
                     mailbox.saveMailbox();
                     System.out.println("Program successfully exited and mailbox saved.");
@@ -286,13 +884,15 @@ public class Mailbox implements Serializable {
 
         // Continuously print header
         while (true) {
-            System.out.println(folder.getName());
+            System.out.println(folder.getName() + " (" + folder.getSummary() + ")");
             System.out.println("Index |        Time       | Subject");
             System.out.println("-----------------------------------");
+            // Take one sorted snapshot so the listing and the selected index refer to the same version of the folder
+            List<Email> emails = folder.getSortedEmails();
 
             // Check if folder is empty -> If empty then just prompt user to return to the main menu
             // Since it is empty then there is nothing to do within the submenu / custom folder, return to the main menu
-            if (folder.getEmails().isEmpty()) {
+            if (emails.isEmpty()) {
                 System.out.println("The folder is empty.");
                 System.out.println("R – Return to mailbox");
                 System.out.print("Enter a user option: ");
@@ -307,9 +907,13 @@ public class Mailbox implements Serializable {
             }
 
             int index = 1;
-            for (Email email : folder.getEmails()) {
-                String formattedDate = dateFormat.format(email.getTimestamp().getTime());
-                System.out.printf("%d   |  %s  | %s\n", index++, formattedDate, email.getSubject());
+            for (Email email : emails) {
+                // Scheduled emails show the time they will be sent
+                GregorianCalendar time = email.getSendAt() != null ? email.getSendAt() : email.getTimestamp();
+                String formattedDate = dateFormat.format(time.getTime());
+                // Unread emails are marked with a star before the subject
+                String marker = email.isRead() ? "" : "* ";
+                System.out.printf("%d   |  %s  | %s%s\n", index++, formattedDate, marker, email.getSubject());
             }
             // Print list of options
             System.out.println();
@@ -334,8 +938,8 @@ public class Mailbox implements Serializable {
                         System.out.println("Invalid input. Please enter a valid integer index.");
                         break; // Return to the loop without proceeding further
                     }
-                    if (emailIndex >= 0 && emailIndex < folder.getEmails().size()) {
-                        Email email = folder.getEmails().get(emailIndex);
+                    if (emailIndex >= 0 && emailIndex < emails.size()) {
+                        Email email = emails.get(emailIndex);
                         System.out.println("Folders:");
                         System.out.println("Inbox");
                         System.out.println("Trash");
@@ -348,8 +952,9 @@ public class Mailbox implements Serializable {
                         if (targetFolder != null) {
                             mailbox.moveEmail(email, targetFolder);
                         } else {
-                            System.out.println("Folder not found. Moving email to Inbox.");
-                            mailbox.moveEmail(email, mailbox.inbox);
+                            // Leave the email where it is rather than guess, and suggest what was probably meant
+                            System.out.println("Error: Folder not found.");
+                            mailbox.printFolderSuggestions(targetFolderName);
                         }
                     } else {
                         System.out.println("Invalid email index.");
@@ -363,8 +968,8 @@ public class Mailbox implements Serializable {
                         System.out.println("Invalid input. Please enter a valid integer index.");
                         break; // Return to the loop without proceeding further
                     }
-                    if (emailIndex >= 0 && emailIndex < folder.getEmails().size()) {
-                        Email email = folder.getEmails().get(emailIndex);
+                    if (emailIndex >= 0 && emailIndex < emails.size()) {
+                        Email email = emails.get(emailIndex);
                         mailbox.deleteEmail(email);
                     } else {
                         System.out.println("Invalid email index.");
@@ -378,8 +983,9 @@ public class Mailbox implements Serializable {
                         System.out.println("Invalid input. Please enter a valid integer index.");
                         break; // Return to the loop without proceeding further
                     }
-                    if (emailIndex >= 0 && emailIndex < folder.getEmails().size()) {
-                        Email email = folder.getEmails().get(emailIndex);
+                    if (emailIndex >= 0 && emailIndex < emails.size()) {
+                        Email email = emails.get(emailIndex);
+                        folder.setRead(email, true); // Viewing an email marks it as read
                         System.out.println("To: " + email.getTo());
                         System.out.println("CC: " + email.getCc());
                         System.out.println("BCC: " + email.getBcc());
@@ -415,17 +1021,18 @@ public class Mailbox implements Serializable {
      * @return the folder containing the email or null if not found
      */
     private Folder findFolderContainingEmail(Email email) {
-        if (inbox.getEmails().contains(email)) {
+        if (inbox.contains(email)) {
             return inbox;
         }
-        if (trash.getEmails().contains(email)) {
+        if (trash.contains(email)) {
             return trash;
         }
+        if (outbox.contains(email)) {
+            return outbox;
+        }
         for (Folder folder : folders) {
-            for (Email e : folder.getEmails()) {
-                if (e.equals(email)) {
-                    return folder;
-                }
+            if (folder.contains(email)) {
+                return folder;
             }
         }
         return null;
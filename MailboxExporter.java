@@ -0,0 +1,339 @@
+import java.io.IOException;
+import java.nio.ByteBuffer;
+import java.nio.CharBuffer;
+import java.nio.channels.FileChannel;
+import java.nio.charset.CharsetEncoder;
+import java.nio.charset.CoderResult;
+import java.nio.charset.CodingErrorAction;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.nio.file.StandardOpenOption;
+import java.time.ZonedDateTime;
+import java.time.format.DateTimeFormatter;
+import java.util.Base64;
+import java.util.HashSet;
+import java.util.List;
+import java.util.Locale;
+import java.util.Set;
+
+/**
+ * MailboxExporter streams a folder or the whole mailbox out to standard formats:
+ * mbox (one file per folder), EML (one file per email) or CSV (one header row per email).
+ * Emails are read straight from the folder's immutable snapshot and encoded through one fixed-size buffer that is
+ * reused for every file of an export, so memory use does not grow with the size of the folder or the number of
+ * files written.
+ *
+ * @author Kenny
+ **/
+public class MailboxExporter {
+    /**
+     * The supported export formats
+     */
+    public enum Format {
+        MBOX,
+        EML,
+        CSV
+    }
+
+    private static final int BUFFER_SIZE = 64 * 1024;
+    private static final DateTimeFormatter MBOX_DATE =
+            DateTimeFormatter.ofPattern("EEE MMM ppd HH:mm:ss yyyy", Locale.US);
+    private static final String CSV_HEADER = "Folder,To,Cc,Bcc,Subject,Date,Size";
+    // An RFC 2047 encoded word is at most 75 characters; "=?UTF-8?B?" and "?=" leave 63, which holds 60 characters
+    // of base64, or 45 bytes of text
+    private static final int MAX_ENCODED_WORD_BYTES = 45;
+
+    /**
+     * Exports one folder. MBOX and CSV write a single file at target; EML writes one file per email into the
+     * target directory.
+     * @param folder the folder to export
+     * @param format the export format
+     * @param target the file (MBOX, CSV) or directory (EML) to write
+     * @return the number of emails exported
+     * @throws IOException if writing fails
+     */
+    public long exportFolder(Folder folder, Format format, Path target) throws IOException {
+        try (ChannelWriter writer = new ChannelWriter()) {
+            return exportFolder(folder, format, target, writer);
+        }
+    }
+
+    /**
+     * Exports every folder of the mailbox. MBOX writes one "name.mbox" file per folder and EML one subdirectory
+     * per folder into the target directory; CSV writes a single file with the folder name in the first column.
+     * @param mailbox the mailbox to export
+     * @param format the export format
+     * @param target the directory (MBOX, EML) or file (CSV) to write
+     * @return the number of emails exported
+     * @throws IOException if writing fails
+     */
+    public long exportMailbox(Mailbox mailbox, Format format, Path target) throws IOException {
+        long exported = 0;
+        try (ChannelWriter writer = new ChannelWriter()) {
+            if (format == Format.CSV) {
+                writer.open(target).write(CSV_HEADER).write("\r\n");
+                for (Folder folder : mailbox.getAllFolders()) {
+                    exported += writeCsv(folder, writer);
+                }
+                return exported;
+            }
+            Files.createDirectories(target);
+            Set<String> usedNames = new HashSet<>();
+            for (Folder folder : mailbox.getAllFolders()) {
+                String name = uniqueFileName(folder.getName(), usedNames);
+                Path folderTarget = target.resolve(format == Format.MBOX ? name + ".mbox" : name);
+                exported += exportFolder(folder, format, folderTarget, writer);
+            }
+        }
+        return exported;
+    }
+
+    /**
+     * Helper Function to export one folder through a writer shared by every file of the export
+     */
+    private long exportFolder(Folder folder, Format format, Path target, ChannelWriter writer) throws IOException {
+        long exported = switch (format) {
+            case MBOX -> writeMbox(folder.getEmails(), writer.open(target));
+            case EML -> writeEml(folder.getEmails(), target, writer);
+            case CSV -> {
+                writer.open(target).write(CSV_HEADER).write("\r\n");
+                yield writeCsv(folder, writer);
+            }
+        };
+        writer.close(); // Finish the last file before the next folder
+        return exported;
+    }
+
+    /**
+     * Helper Function to write emails as an mbox file. Body lines starting with "From " (after any number of
+     * '>') get an extra '>' so readers do not mistake them for the start of the next message.
+     */
+    private long writeMbox(List<Email> emails, ChannelWriter writer) throws IOException {
+        long exported = 0;
+        for (Email email : emails) {
+            writer.write("From MAILER-DAEMON ").write(MBOX_DATE.format(dateOf(email))).write("\n");
+            writeHeaders(email, writer, "\n");
+            for (String line : lines(email.getBody())) {
+                int quotes = 0;
+                while (quotes < line.length() && line.charAt(quotes) == '>') {
+                    quotes++;
+                }
+                if (line.startsWith("From ", quotes)) {
+                    writer.write(">");
+                }
+                writer.write(line).write("\n");
+            }
+            writer.write("\n");
+            exported++;
+        }
+        return exported;
+    }
+
+    /**
+     * Helper Function to write each email as its own .eml file with CRLF line endings
+     */
+    private long writeEml(List<Email> emails, Path directory, ChannelWriter writer) throws IOException {
+        Files.createDirectories(directory);
+        long exported = 0;
+        for (Email email : emails) {
+            exported++;
+            writer.open(directory.resolve(String.format("%06d.eml", exported)));
+            writeHeaders(email, writer, "\r\n");
+            for (String line : lines(email.getBody())) {
+                writer.write(line).write("\r\n");
+            }
+        }
+        return exported;
+    }
+
+    /**
+     * Helper Function to write one CSV row per email of a folder
+     */
+    private long writeCsv(Folder folder, ChannelWriter writer) throws IOException {
+        long exported = 0;
+        for (Email email : folder.getEmails()) {
+            writer.write(csv(folder.getName())).write(",")
+                    .write(csv(email.getTo())).write(",")
+                    .write(csv(email.getCc())).write(",")
+                    .write(csv(email.getBcc())).write(",")
+                    .write(csv(email.getSubject())).write(",")
+                    .write(DateTimeFormatter.ISO_OFFSET_DATE_TIME.format(dateOf(email))).write(",")
+                    .write(Long.toString(email.getSize())).write("\r\n");
+            exported++;
+        }
+        return exported;
+    }
+
+    /**
+     * Helper Function to write the RFC 5322 headers of an email followed by the blank separator line
+     */
+    private static void writeHeaders(Email email, ChannelWriter writer, String newline) throws IOException {
+        writeHeader("To", email.getTo(), writer, newline);
+        writeHeader("Cc", email.getCc(), writer, newline);
+        writeHeader("Bcc", email.getBcc(), writer, newline);
+        writeHeader("Subject", email.getSubject(), writer, newline);
+        writer.write("Date: ").write(DateTimeFormatter.RFC_1123_DATE_TIME.format(dateOf(email))).write(newline);
+        writer.write("MIME-Version: 1.0").write(newline);
+        writer.write("Content-Type: text/plain; charset=UTF-8").write(newline);
+        writer.write("Content-Transfer-Encoding: 8bit").write(newline);
+        writer.write(newline);
+    }
+
+    /**
+     * Helper Function to write one header, skipping empty values. Line breaks are flattened so a value cannot
+     * start a new header, and non-ASCII text is written as an RFC 2047 encoded word.
+     */
+    private static void writeHeader(String name, String value, ChannelWriter writer, String newline)
+            throws IOException {
+        if (value == null || value.isBlank()) {
+            return;
+        }
+        String flat = value.replaceAll("[\\r\\n]+", " ");
+        if (!StandardCharsets.US_ASCII.newEncoder().canEncode(flat)) {
+            flat = encodeWords(flat, newline);
+        }
+        writer.write(name).write(": ").write(flat).write(newline);
+    }
+
+    /**
+     * Helper Function to encode text as RFC 2047 encoded words. Each word is at most 75 characters long and
+     * never splits a character across words; the words are joined by folded header lines.
+     */
+    private static String encodeWords(String text, String newline) {
+        StringBuilder encoded = new StringBuilder();
+        int start = 0;
+        while (start < text.length()) {
+            // Take as many whole characters as fit in one word
+            int end = start;
+            int bytes = 0;
+            while (end < text.length()) {
+                int codePoint = text.codePointAt(end);
+                int length = new String(Character.toChars(codePoint)).getBytes(StandardCharsets.UTF_8).length;
+                if (bytes + length > MAX_ENCODED_WORD_BYTES) {
+                    break;
+                }
+                bytes += length;
+                end += Character.charCount(codePoint);
+            }
+            if (encoded.length() > 0) {
+                encoded.append(newline).append(' ');
+            }
+            encoded.append("=?UTF-8?B?")
+                    .append(Base64.getEncoder().encodeToString(
+                            text.substring(start, end).getBytes(StandardCharsets.UTF_8)))
+                    .append("?=");
+            start = end;
+        }
+        return encoded.toString();
+    }
+
+    /**
+     * Helper Function to quote a CSV field when needed (RFC 4180)
+     */
+    private static String csv(String value) {
+        if (value == null) {
+            return "";
+        }
+        if (value.contains(",") || value.contains("\"") || value.contains("\n") || value.contains("\r")) {
+            return "\"" + value.replace("\"", "\"\"") + "\"";
+        }
+        return value;
+    }
+
+    private static String[] lines(String body) {
+        return body == null ? new String[0] : body.split("\r\n|\r|\n", -1);
+    }
+
+    private static ZonedDateTime dateOf(Email email) {
+        return email.getTimestamp().toZonedDateTime();
+    }
+
+    /**
+     * Helper Function to turn a folder name into a safe file name that no earlier folder of the same export
+     * has used, adding "-2", "-3", ... when two names clean up to the same file name. Names are compared
+     * ignoring case, since some file systems do.
+     */
+    private static String uniqueFileName(String folderName, Set<String> usedNames) {
+        String base = fileName(folderName);
+        String name = base;
+        for (int suffix = 2; !usedNames.add(name.toLowerCase(Locale.ROOT)); suffix++) {
+            name = base + "-" + suffix;
+        }
+        return name;
+    }
+
+    /**
+     * Helper Function to turn a folder name into a safe file name
+     */
+    private static String fileName(String folderName) {
+        String safe = folderName.replaceAll("[^A-Za-z0-9 ._-]", "_").trim();
+        return safe.isEmpty() || safe.startsWith(".") ? "_" + safe : safe;
+    }
+
+    /**
+     * Writes text to files through a FileChannel, encoding it as UTF-8 into one direct buffer that is flushed to
+     * the channel whenever it fills up. The writer moves from file to file with open(), so a whole export,
+     * however many files it writes, allocates the buffer once.
+     */
+    private static final class ChannelWriter implements AutoCloseable {
+        private FileChannel channel; // The file being written, or null between files
+        private final ByteBuffer buffer = ByteBuffer.allocateDirect(BUFFER_SIZE);
+        private final CharsetEncoder encoder = StandardCharsets.UTF_8.newEncoder()
+                .onMalformedInput(CodingErrorAction.REPLACE)
+                .onUnmappableCharacter(CodingErrorAction.REPLACE);
+
+        /**
+         * Finishes the current file, if any, and starts writing a new one
+         * @param path the file to write
+         * @return this writer
+         */
+        private ChannelWriter open(Path path) throws IOException {
+            close();
+            Path parent = path.toAbsolutePath().getParent();
+            if (parent != null) {
+                Files.createDirectories(parent);
+            }
+            channel = FileChannel.open(path, StandardOpenOption.CREATE, StandardOpenOption.WRITE,
+                    StandardOpenOption.TRUNCATE_EXISTING);
+            return this;
+        }
+
+        private ChannelWriter write(String text) throws IOException {
+            CharBuffer chars = CharBuffer.wrap(text);
+            encoder.reset();
+            while (true) {
+                CoderResult result = encoder.encode(chars, buffer, true);
+                if (result.isOverflow()) {
+                    flush();
+                } else if (result.isUnderflow()) {
+                    return this;
+                } else {
+                    result.throwException();
+                }
+            }
+        }
+
+        private void flush() throws IOException {
+            buffer.flip();
+            while (buffer.hasRemaining()) {
+                channel.write(buffer);
+            }
+            buffer.clear();
+        }
+
+        @Override
+        public void close() throws IOException {
+            if (channel == null) {
+                return;
+            }
+            try {
+                flush();
+            } finally {
+                channel.close();
+                channel = null;
+                buffer.clear(); // Never carry bytes of a failed file over to the next one
+            }
+        }
+    }
+}
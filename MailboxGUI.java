@@ -17,13 +17,17 @@ import java.io.*;
 public class MailboxGUI extends JFrame {
     private final JTable emailTable; // A table that will display emails
     private final EmailTableModel emailTableModel; // Custom table defines how email data is displayed in JTable
+    private final JLabel summaryLabel; // Shows the folder's message count, unread count and size
+    private final Folder folder; // Folder being displayed
 
     private boolean sortAscending = true; // Sorting algorithms
     private String sortBy = "Date"; // Default sort by "Date"
 
     public MailboxGUI(Mailbox mailbox, Folder folder) {
-        this.emailTableModel = new EmailTableModel(folder.getEmails()); // Initializes custom table with a list of email
+        this.emailTableModel = new EmailTableModel(folder); // Initializes custom table with the folder's emails
         this.emailTable = new JTable(emailTableModel); // Creates the JTable using a custom table model
+        this.summaryLabel = new JLabel();
+        this.folder = folder;
 
         // Set up JFrame
         setTitle("Mailbox"); // Sets the title to Mailbox
@@ -32,16 +36,20 @@ public class MailboxGUI extends JFrame {
         setLayout(new BorderLayout()); // Defines a grid and locations (north/south/west/east/center)
 
         // Set up table
-        emailTable.setAutoCreateRowSorter(true); // Enables the automatic sorting functionality built in
+        // Sorting is done by the table model with folder sort views, so row indices always match the model
         JScrollPane scrollPane = new JScrollPane(emailTable); // Allows scrolling in the event we have many emails
         add(scrollPane, BorderLayout.CENTER); // Centered
+        add(summaryLabel, BorderLayout.NORTH); // Folder summary above the table
+        updateSummary();
 
         // Add buttons
         JPanel buttonPanel = new JPanel(); // Creates a panel that holds the buttons
         JButton deleteButton = new JButton("Delete");
         JButton moveButton = new JButton("Move");
+        JButton readButton = new JButton("Mark Read/Unread");
         buttonPanel.add(deleteButton); // Adds the deleted button to the panel
         buttonPanel.add(moveButton); // Adds the move button to the panel
+        buttonPanel.add(readButton); // Adds the read toggle button to the panel
         add(buttonPanel, BorderLayout.SOUTH);
 
         // Header click listeners for sorting
@@ -52,11 +60,7 @@ public class MailboxGUI extends JFrame {
                 int column = emailTable.columnAtPoint(e.getPoint()); // Gets the column index that was clicked
                 String columnName = emailTable.getColumnName(column); // Gets the name of the clicked column
                 // Set sorting algorithm based on what column name was clicked
-                if (columnName.equals("Subject")) {
-                    sortBy = "Subject";
-                } else if (columnName.equals("Date")) {
-                    sortBy = "Date";
-                }
+                sortBy = columnName;
                 sortAscending = !sortAscending;
                 sortTable();
             }
@@ -68,7 +72,8 @@ public class MailboxGUI extends JFrame {
             if (selectedRow >= 0) {
                 Email email = emailTableModel.getEmailAt(selectedRow); // Get the email at the selected row
                 mailbox.deleteEmail(email); // Delete the email from the mailbox
-                emailTableModel.removeEmail(email); // Remove the email from the table model (refresh the table)
+                emailTableModel.refresh(); // Reload the folder snapshot into the table model (refresh the table)
+                updateSummary();
                 saveMailbox(); // Save the mailbox after deleting the email
             } else {
                 // Show an error message if no row is selected
@@ -85,9 +90,22 @@ public class MailboxGUI extends JFrame {
                 String targetFolderName = JOptionPane.showInputDialog(this, "Enter target folder name:");
                 if (targetFolderName != null && !targetFolderName.trim().isEmpty()) { // If a valid folder name is provided
                     Folder targetFolder = mailbox.getFolder(targetFolderName); // Get the folder object for the provided name
+                    if (targetFolder == null) {
+                        // Offer the closest folder names from the typeahead index instead of failing straight away
+                        List<String> suggestions = mailbox.suggestFolderNames(targetFolderName, 10);
+                        if (!suggestions.isEmpty()) {
+                            Object choice = JOptionPane.showInputDialog(this, "Folder not found. Did you mean:",
+                                    "Move", JOptionPane.QUESTION_MESSAGE, null, suggestions.toArray(), suggestions.get(0));
+                            if (choice == null) {
+                                return; // User cancelled the suggestion dialog
+                            }
+                            targetFolder = mailbox.getFolder(choice.toString());
+                        }
+                    }
                     if (targetFolder != null) { // If the folder exists
                         mailbox.moveEmail(email, targetFolder); // Move the email to the target folder
-                        emailTableModel.removeEmail(email); // Remove the email from the table model (refresh the table)
+                        emailTableModel.refresh(); // Reload the folder snapshot into the table model (refresh the table)
+                        updateSummary();
                         saveMailbox(); // Save the mailbox state after moving the email
                     } else {
                         // Show an error message if the folder is not found
@@ -103,43 +121,55 @@ public class MailboxGUI extends JFrame {
             }
         });
 
+        // Read toggle button action
+        readButton.addActionListener(e -> {
+            int selectedRow = emailTable.getSelectedRow(); // Gets the currently selected row in the table
+            if (selectedRow >= 0) {
+                Email email = emailTableModel.getEmailAt(selectedRow); // Get the email at the selected row
+                folder.setRead(email, !email.isRead()); // Flip the read flag through the folder so its counts update
+                emailTableModel.fireTableRowsUpdated(selectedRow, selectedRow);
+                updateSummary();
+                saveMailbox(); // Save the mailbox state after changing the read flag
+            } else {
+                // Show an error message if no row is selected
+                JOptionPane.showMessageDialog(this, "No email selected.");
+            }
+        });
+
         setVisible(true); // Make the GUI visible / show up to user on the computer screen
     }
 
     /**
-     * Saves the mailbox state to "mailbox.obj" so that moving/deleting emails in GUI reflects actual file
+     * Shows the folder's current summary above the table (constant time, no emails are walked)
+     */
+    private void updateSummary() {
+        summaryLabel.setText(" " + folder.getName() + ": " + folder.getSummary());
+    }
+
+    /**
+     * Saves the mailbox state so that moving/deleting emails in GUI reflects actual file
      * Note: This was not stated in instructions but was requested during office hours (implementing to be safe)
      */
     private void saveMailbox() {
-        try (FileOutputStream fos = new FileOutputStream("mailbox.obj");
-             ObjectOutputStream oos = new ObjectOutputStream(fos)) {
-            oos.writeObject(Mailbox.mailbox); // Save the mailbox state
-            System.out.println("Mailbox saved.");
-        } catch (IOException e) {
-            e.printStackTrace();
-        }
+        Mailbox.mailbox.saveMailbox(); // Writes a checkpoint of the folders that changed
     }
+
     /**
      * Sorts the table based on the current sorting method
+     * The clicked column is the primary key; date (or subject when sorting by date) breaks ties
      */
     private void sortTable() {
-        TableRowSorter<EmailTableModel> sorter = (TableRowSorter<EmailTableModel>) emailTable.getRowSorter();
-        // Sort by either date or subject
-        if (sortBy.equals("Date")) {
-            // Swing class sorter that sorts the rows and takes in a custom sorting method (ascending/descending)
-            // SingletonList is used to ensure that when sorting, it gets a proper list of keys
-            sorter.setSortKeys(Collections.singletonList
-                    // Sorts the column index 1 or date
-                    // If true then sort by ascending, otherwise sort by descending
-                            (new RowSorter.SortKey(1, sortAscending ? SortOrder.ASCENDING : SortOrder.DESCENDING)));
-        } else if (sortBy.equals("Subject")) {
-            // Swing class sorter that sorts the rows and takes in a custom sorting method (ascending/descending)
-            // SingletonList is used to ensure that when sorting, it gets a proper list of keys
-            sorter.setSortKeys(Collections.singletonList
-                    // Sorts column index 0 or subject
-                    // If true then sort by ascending, otherwise sort by descending
-                            (new RowSorter.SortKey(0, sortAscending ? SortOrder.ASCENDING : SortOrder.DESCENDING)));
-        }
+        SortView.Key key = switch (sortBy) {
+            case "Subject" -> SortView.Key.SUBJECT;
+            case "To" -> SortView.Key.RECIPIENT;
+            case "Size" -> SortView.Key.SIZE;
+            default -> SortView.Key.DATE;
+        };
+        SortView.Criterion secondary = key == SortView.Key.DATE
+                ? new SortView.Criterion(SortView.Key.SUBJECT, true)
+                : new SortView.Criterion(SortView.Key.DATE, false);
+        // If true then sort by ascending, otherwise sort by descending
+        emailTableModel.setSortCriteria(List.of(new SortView.Criterion(key, sortAscending), secondary));
     }
 
     /**
@@ -166,15 +196,19 @@ public class MailboxGUI extends JFrame {
      * Custom table model for displaying emails in a JTable
      */
     private static class EmailTableModel extends AbstractTableModel {
-        private final String[] columnNames = {"Subject", "Date"}; // Column names for the table
-        private final List<Email> emails; // List to store email objects
+        private final String[] columnNames = {"Subject", "Date", "To", "Size", "Read"}; // Column names for the table
+        private final Folder folder; // Folder whose emails are displayed
+        private List<SortView.Criterion> sortCriteria; // Order the emails are shown in
+        private List<Email> emails; // Sorted view of the folder snapshot currently shown
 
         /**
-         * Constructor for EmailTableModel. Initializes the list of emails.
-         * @param emails the list of emails to display.
+         * Constructor for EmailTableModel. Shows the folder in its current sorting method (no copy is made).
+         * @param folder the folder whose emails to display.
          */
-        public EmailTableModel(List<Email> emails) {
-            this.emails = new ArrayList<>(emails);
+        public EmailTableModel(Folder folder) {
+            this.folder = folder;
+            this.sortCriteria = SortView.criteriaFor(folder.getCurrentSortingMethod());
+            this.emails = folder.getSortView(sortCriteria);
         }
 
         /**
@@ -190,7 +224,7 @@ public class MailboxGUI extends JFrame {
         /**
          * Gets the number of columns in the table
          * Overrides the getColumnCount method from AbstractTableModel
-         * @return the number of columns in the table which is just the column names (subject/date; so it is always 2)
+         * @return the number of columns in the table which is just the column names (always 5)
          */
         @Override
         public int getColumnCount() {
@@ -211,6 +245,9 @@ public class MailboxGUI extends JFrame {
                 case 0 -> email.getSubject(); // Return email if column index is 0
                 // Return date format if column index is 1 (SimpleDateFormat is used to make format cleaner)
                 case 1 -> new SimpleDateFormat("h:mma M/d/yyyy").format(email.getTimestamp().getTime());
+                case 2 -> email.getTo(); // Return the recipient if column index is 2
+                case 3 -> email.getSize() + " B"; // Return the size in bytes if column index is 3
+                case 4 -> email.isRead() ? "Yes" : "No"; // Return the read state if column index is 4
                 // Otherwise return null if column index out of bound
                 default -> null;
             };
@@ -237,11 +274,19 @@ public class MailboxGUI extends JFrame {
         }
 
         /**
-         * Removes the specified email
-         * @param email the name of the email to be removed
+         * Changes the order the emails are shown in; the folder itself is not reordered
+         * @param criteria the sort keys, most significant first
+         */
+        public void setSortCriteria(List<SortView.Criterion> criteria) {
+            sortCriteria = criteria;
+            refresh();
+        }
+
+        /**
+         * Replaces the displayed emails with the folder's current snapshot
          */
-        public void removeEmail(Email email) {
-            emails.remove(email);
+        public void refresh() {
+            emails = folder.getSortView(sortCriteria);
             // fireTableDataChanged is a method from AbstractTableModel
             // It notifies that the table has been changed (as we removed an email) and will refresh / update the table
             fireTableDataChanged();
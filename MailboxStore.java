@@ -0,0 +1,330 @@
+import java.io.ByteArrayInputStream;
+import java.io.ByteArrayOutputStream;
+import java.io.IOException;
+import java.io.ObjectInputStream;
+import java.io.ObjectOutputStream;
+import java.io.Serial;
+import java.io.Serializable;
+import java.nio.ByteBuffer;
+import java.nio.channels.FileChannel;
+import java.nio.file.DirectoryStream;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.nio.file.StandardCopyOption;
+import java.nio.file.StandardOpenOption;
+import java.util.ArrayList;
+import java.util.HashSet;
+import java.util.IdentityHashMap;
+import java.util.List;
+import java.util.Set;
+import java.util.concurrent.Callable;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.Future;
+
+/**
+ * MailboxStore saves a mailbox as a directory of checkpoint files: one segment file per folder plus a small
+ * manifest listing the segments. A checkpoint only rewrites the folders that changed since the last checkpoint,
+ * writing their segments in parallel. Segments are always written to new files and the manifest is replaced with
+ * an atomic rename, so a crash in the middle of a save leaves the previous checkpoint intact.
+ *
+ * @author Kenny
+ **/
+public class MailboxStore {
+    private static final String MANIFEST = "manifest";
+    private static final String MANIFEST_TEMP = "manifest.tmp";
+    private static final String SEGMENT_SUFFIX = ".seg";
+
+    /**
+     * The manifest lists the segment of every folder (the built-in folders, then custom folders in order)
+     * together with the mailbox-wide settings, which are small enough to rewrite on every checkpoint.
+     */
+    private static final class Manifest implements Serializable {
+        @Serial
+        private static final long serialVersionUID = 1L;
+        private final ArrayList<String> segments = new ArrayList<>();
+        private RuleEngine rules;
+        private long nextSegmentId;
+        private int builtInFolders; // Number of built-in folders at the start of segments (0 in older manifests)
+        private ArrayList<RetentionPolicy> retentionPolicies; // Null in older manifests
+    }
+
+    /**
+     * Where a folder was last written and which version of the folder that segment holds
+     */
+    private record Segment(String fileName, long version) {
+    }
+
+    /**
+     * Result of a checkpoint
+     * @param foldersWritten the number of folder segments rewritten
+     * @param foldersTotal the number of folders in the mailbox
+     * @param bytesWritten the number of segment bytes written
+     */
+    public record CheckpointResult(int foldersWritten, int foldersTotal, long bytesWritten) {
+    }
+
+    private final Path directory;
+    private final IdentityHashMap<Folder, Segment> saved; // Folders in the current checkpoint
+    private long nextSegmentId;
+    private ExecutorService pool;
+
+    /**
+     * Constructs a store that keeps its files in the given directory
+     * @param directory the directory holding the manifest and segments
+     */
+    public MailboxStore(Path directory) {
+        this.directory = directory;
+        this.saved = new IdentityHashMap<>();
+    }
+
+    /**
+     * Checks whether a checkpoint has been written to this store
+     * @return true if the manifest exists
+     */
+    public boolean exists() {
+        return Files.exists(directory.resolve(MANIFEST));
+    }
+
+    /**
+     * Returns the directory holding the store's files
+     * @return the store directory
+     */
+    public Path getDirectory() {
+        return directory;
+    }
+
+    /**
+     * Loads the mailbox from the latest checkpoint, reading the folder segments in parallel
+     * @return the loaded mailbox
+     * @throws IOException if the manifest or a segment cannot be read
+     */
+    public synchronized Mailbox load() throws IOException {
+        Manifest manifest = (Manifest) deserialize(readFile(directory.resolve(MANIFEST)));
+        List<Callable<Folder>> reads = new ArrayList<>();
+        for (String segment : manifest.segments) {
+            reads.add(() -> (Folder) deserialize(readFile(directory.resolve(segment))));
+        }
+        List<Folder> folders = runAll(reads);
+
+        saved.clear();
+        for (int i = 0; i < folders.size(); i++) {
+            saved.put(folders.get(i), new Segment(manifest.segments.get(i), folders.get(i).getVersion()));
+        }
+        nextSegmentId = manifest.nextSegmentId;
+        // Manifests written before the Outbox existed only hold Inbox and Trash
+        int builtInFolders = manifest.builtInFolders > 0 ? manifest.builtInFolders : 2;
+        return Mailbox.restore(folders, builtInFolders, manifest.rules, manifest.retentionPolicies);
+    }
+
+    /**
+     * Writes a checkpoint of the mailbox. Folders whose version has not changed since they were last written
+     * keep their existing segment; the others are serialized and written in parallel. Every folder is snapshotted
+     * at the same moment before anything is written, so an email moved during the save is saved in exactly one
+     * folder and writers are never blocked while segments are written. Once every new segment is
+     * on disk the manifest is swapped in with an atomic rename and segments no longer referenced are deleted.
+     * @param mailbox the mailbox to save
+     * @return how much was written
+     * @throws IOException if a segment or the manifest cannot be written
+     */
+    public synchronized CheckpointResult checkpoint(Mailbox mailbox) throws IOException {
+        Files.createDirectories(directory);
+        List<Folder.Snapshot> snapshots = mailbox.snapshotAllFolders();
+
+        // Decide which folders need a new segment by comparing the version each snapshot was taken at
+        Manifest manifest = new Manifest();
+        IdentityHashMap<Folder, Segment> next = new IdentityHashMap<>();
+        List<Callable<Long>> writes = new ArrayList<>();
+        for (Folder.Snapshot snapshot : snapshots) {
+            Segment previous = saved.get(snapshot.folder());
+            long version = snapshot.version();
+            Segment segment;
+            boolean unchanged = previous != null && previous.version() == version;
+            if (unchanged && Files.exists(directory.resolve(previous.fileName()))) {
+                segment = previous;
+            } else {
+                segment = new Segment("folder-" + nextSegmentId++ + SEGMENT_SUFFIX, version);
+                Path path = directory.resolve(segment.fileName());
+                // Segment ids are never reused once published, so a file left by a failed save can be replaced
+                writes.add(() -> writeFile(path, serialize(snapshot.copy()), StandardOpenOption.CREATE,
+                        StandardOpenOption.TRUNCATE_EXISTING));
+            }
+            next.put(snapshot.folder(), segment);
+            manifest.segments.add(segment.fileName());
+        }
+        manifest.rules = mailbox.getRuleEngine();
+        manifest.nextSegmentId = nextSegmentId;
+        manifest.builtInFolders = Mailbox.BUILT_IN_FOLDERS;
+        manifest.retentionPolicies = new ArrayList<>(mailbox.getRetentionPolicies());
+
+        long bytesWritten = 0;
+        for (long bytes : runAll(writes)) {
+            bytesWritten += bytes;
+        }
+
+        // Publish the new checkpoint: write the manifest beside the old one, then rename it over the old one
+        Path temp = directory.resolve(MANIFEST_TEMP);
+        writeFile(temp, serialize(manifest), StandardOpenOption.CREATE, StandardOpenOption.TRUNCATE_EXISTING);
+        Files.move(temp, directory.resolve(MANIFEST), StandardCopyOption.ATOMIC_MOVE,
+                StandardCopyOption.REPLACE_EXISTING);
+        syncDirectory();
+
+        saved.clear();
+        saved.putAll(next);
+        deleteUnreferencedSegments(new HashSet<>(manifest.segments));
+        return new CheckpointResult(writes.size(), snapshots.size(), bytesWritten);
+    }
+
+    /**
+     * Returns the total size of the store's files
+     * @return the number of bytes the store takes on disk (0 if the directory does not exist)
+     * @throws IOException if the directory cannot be listed
+     */
+    public synchronized long sizeOnDisk() throws IOException {
+        if (!Files.isDirectory(directory)) {
+            return 0;
+        }
+        long size = 0;
+        try (DirectoryStream<Path> files = Files.newDirectoryStream(directory)) {
+            for (Path file : files) {
+                if (Files.isRegularFile(file)) {
+                    size += Files.size(file);
+                }
+            }
+        }
+        return size;
+    }
+
+    /**
+     * Compacts the store by deleting files the current checkpoint does not use: segments left behind by a save
+     * that failed or was interrupted, and a leftover temporary manifest
+     * @return the number of bytes freed
+     * @throws IOException if the manifest cannot be read or a file cannot be deleted
+     */
+    public synchronized long compact() throws IOException {
+        if (!exists()) {
+            return 0;
+        }
+        Manifest manifest = (Manifest) deserialize(readFile(directory.resolve(MANIFEST)));
+        long before = sizeOnDisk();
+        Files.deleteIfExists(directory.resolve(MANIFEST_TEMP));
+        deleteUnreferencedSegments(new HashSet<>(manifest.segments));
+        return before - sizeOnDisk();
+    }
+
+    /**
+     * Helper Function to delete segment files the manifest no longer refers to
+     * @param referenced the segment file names in the current manifest
+     */
+    private void deleteUnreferencedSegments(Set<String> referenced) throws IOException {
+        try (DirectoryStream<Path> segments = Files.newDirectoryStream(directory, "*" + SEGMENT_SUFFIX)) {
+            for (Path segment : segments) {
+                if (!referenced.contains(segment.getFileName().toString())) {
+                    Files.deleteIfExists(segment);
+                }
+            }
+        }
+    }
+
+    /**
+     * Helper Function to run tasks on the store's thread pool and wait for all of them
+     * @param tasks the tasks to run
+     * @return the results in task order
+     * @throws IOException if any task failed
+     */
+    private <T> List<T> runAll(List<Callable<T>> tasks) throws IOException {
+        List<T> results = new ArrayList<>();
+        if (tasks.isEmpty()) {
+            return results;
+        }
+        try {
+            for (Future<T> future : pool().invokeAll(tasks)) {
+                results.add(future.get());
+            }
+        } catch (InterruptedException e) {
+            Thread.currentThread().interrupt();
+            throw new IOException("Interrupted while accessing the mailbox store", e);
+        } catch (ExecutionException e) {
+            if (e.getCause() instanceof IOException ioException) {
+                throw ioException;
+            }
+            throw new IOException(e.getCause());
+        }
+        return results;
+    }
+
+    /**
+     * Helper Function to create the thread pool on first use, one thread per core
+     * @return the pool
+     */
+    private ExecutorService pool() {
+        if (pool == null) {
+            pool = Executors.newFixedThreadPool(Runtime.getRuntime().availableProcessors(), task -> {
+                Thread thread = new Thread(task, "mailbox-store");
+                thread.setDaemon(true); // Never keep the program running just for the store
+                return thread;
+            });
+        }
+        return pool;
+    }
+
+    /**
+     * Helper Function to write bytes to a file through a FileChannel and force them to disk
+     * @return the number of bytes written
+     */
+    private static long writeFile(Path path, byte[] bytes, StandardOpenOption... options) throws IOException {
+        Set<StandardOpenOption> openOptions = new HashSet<>(List.of(options));
+        openOptions.add(StandardOpenOption.WRITE);
+        try (FileChannel channel = FileChannel.open(path, openOptions)) {
+            ByteBuffer buffer = ByteBuffer.wrap(bytes);
+            while (buffer.hasRemaining()) {
+                channel.write(buffer);
+            }
+            channel.force(true);
+        }
+        return bytes.length;
+    }
+
+    /**
+     * Helper Function to read a whole file through a FileChannel
+     * @return the file contents
+     */
+    private static byte[] readFile(Path path) throws IOException {
+        try (FileChannel channel = FileChannel.open(path, StandardOpenOption.READ)) {
+            ByteBuffer buffer = ByteBuffer.allocate((int) channel.size());
+            while (buffer.hasRemaining() && channel.read(buffer) != -1) {
+                // Keep reading until the buffer is full
+            }
+            return buffer.array();
+        }
+    }
+
+    /**
+     * Helper Function to flush the directory entry after the manifest rename. Not every platform allows
+     * opening a directory, in which case the rename is still atomic but may not yet be durable.
+     */
+    private void syncDirectory() {
+        try (FileChannel channel = FileChannel.open(directory, StandardOpenOption.READ)) {
+            channel.force(true);
+        } catch (IOException e) {
+            // Directory sync is not supported here
+        }
+    }
+
+    private static byte[] serialize(Object object) throws IOException {
+        ByteArrayOutputStream bytes = new ByteArrayOutputStream();
+        try (ObjectOutputStream oos = new ObjectOutputStream(bytes)) {
+            oos.writeObject(object);
+        }
+        return bytes.toByteArray();
+    }
+
+    private static Object deserialize(byte[] bytes) throws IOException {
+        try (ObjectInputStream ois = new ObjectInputStream(new ByteArrayInputStream(bytes))) {
+            return ois.readObject();
+        } catch (ClassNotFoundException e) {
+            throw new IOException("Unknown class in mailbox store: " + e.getMessage(), e);
+        }
+    }
+}
@@ -0,0 +1,413 @@
+import java.io.EOFException;
+import java.io.IOException;
+import java.io.InputStream;
+import java.io.ObjectInputStream;
+import java.io.ObjectOutputStream;
+import java.io.OutputStream;
+import java.io.PipedInputStream;
+import java.io.PipedOutputStream;
+import java.nio.file.Path;
+import java.nio.file.Paths;
+import java.util.ArrayList;
+import java.util.HashMap;
+import java.util.HashSet;
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.Locale;
+import java.util.Map;
+import java.util.Set;
+
+/**
+ * MailboxSync makes one mailbox a replica of another by comparing their Merkle trees (see FolderDigest) instead
+ * of copying every folder. The side being updated pulls from the source over a pair of streams (a pipe, a socket,
+ * or anything else): it compares the mailbox root hash, then the hash of each folder, then only walks down the
+ * subtrees whose hashes differ until it reaches the buckets holding the changed emails. Only those emails are
+ * fetched, and emails that merely moved between folders are reused from the local copy rather than fetched
+ * again, so the amount of work and data grows with the size of the difference rather than the size of the mailbox.
+ *
+ * @author Kenny
+ **/
+public class MailboxSync {
+    // Requests sent by the pulling side; the source answers each one with the objects listed
+    private static final String ROOT = "ROOT"; // -> mailbox root hash (Long)
+    private static final String FOLDERS = "FOLDERS"; // -> folder names (String[]), folder hashes (long[])
+    private static final String NODES = "NODES"; // folder, level, int[] nodes -> child hashes (long[])
+    private static final String BUCKETS = "BUCKETS"; // folder, int[] buckets -> ids (String[]), hashes (long[])
+    private static final String FETCH = "FETCH"; // folder, String[] ids -> emails (ArrayList<Email>)
+    private static final String BYE = "BYE";
+    private static final int PIPE_SIZE = 64 * 1024;
+
+    /**
+     * What a sync changed and how much it had to compare
+     * @param foldersCreated the number of folders created locally
+     * @param foldersRemoved the number of local folders removed because the source no longer has them
+     * @param messagesFetched the number of emails transferred from the source
+     * @param messagesMoved the number of emails that changed folder and were reused instead of fetched
+     * @param messagesRemoved the number of local emails dropped (deleted or replaced by a newer copy)
+     * @param hashesCompared the number of tree hashes received from the source
+     */
+    public record SyncResult(int foldersCreated, int foldersRemoved, int messagesFetched, int messagesMoved,
+                             int messagesRemoved, long hashesCompared) {
+        @Override
+        public String toString() {
+            return foldersCreated + " folder(s) created, " + foldersRemoved + " removed; " + messagesFetched
+                    + " email(s) fetched, " + messagesMoved + " moved, " + messagesRemoved + " removed; "
+                    + hashesCompared + " hash(es) compared";
+        }
+    }
+
+    /**
+     * The changes found for one local folder
+     */
+    private static final class FolderChanges {
+        private final Folder folder;
+        private final List<Email> removed = new ArrayList<>();
+        private final Map<String, Long> wanted = new LinkedHashMap<>(); // Id -> content hash on the source
+        private final List<Email> added = new ArrayList<>();
+
+        private FolderChanges(Folder folder) {
+            this.folder = folder;
+        }
+    }
+
+    /**
+     * Answers sync requests about a mailbox until the other side says goodbye or closes the connection
+     * @param source the mailbox to serve
+     * @param in the stream requests arrive on
+     * @param out the stream answers are written to
+     * @throws IOException if the connection fails
+     */
+    public static void serve(Mailbox source, InputStream in, OutputStream out) throws IOException {
+        ObjectOutputStream output = new ObjectOutputStream(out);
+        output.flush(); // Send the stream header before waiting for the other side's
+        ObjectInputStream input = new ObjectInputStream(in);
+        try {
+            while (true) {
+                String request;
+                try {
+                    request = input.readUTF();
+                } catch (EOFException e) {
+                    return;
+                }
+                switch (request) {
+                    case ROOT -> output.writeObject(rootOf(source));
+                    case FOLDERS -> {
+                        List<Folder> folders = source.getAllFolders();
+                        String[] names = new String[folders.size()];
+                        long[] hashes = new long[folders.size()];
+                        for (int i = 0; i < names.length; i++) {
+                            names[i] = folders.get(i).getName();
+                            hashes[i] = folders.get(i).getDigest();
+                        }
+                        output.writeObject(names);
+                        output.writeObject(hashes);
+                    }
+                    case NODES -> {
+                        Folder folder = source.getFolder(input.readUTF());
+                        int level = input.readInt();
+                        int[] nodes = (int[]) input.readObject();
+                        output.writeObject(folder != null ? folder.getDigestChildren(level, nodes)
+                                : new long[nodes.length * FolderDigest.FANOUT]);
+                    }
+                    case BUCKETS -> {
+                        Folder folder = source.getFolder(input.readUTF());
+                        int[] buckets = (int[]) input.readObject();
+                        List<FolderDigest.Leaf> leaves = new ArrayList<>();
+                        for (int bucket : buckets) {
+                            if (folder != null) {
+                                leaves.addAll(folder.getDigestBucket(bucket));
+                            }
+                        }
+                        String[] ids = new String[leaves.size()];
+                        long[] hashes = new long[leaves.size()];
+                        for (int i = 0; i < ids.length; i++) {
+                            ids[i] = leaves.get(i).email().getId();
+                            hashes[i] = leaves.get(i).hash();
+                        }
+                        output.writeObject(ids);
+                        output.writeObject(hashes);
+                    }
+                    case FETCH -> {
+                        Folder folder = source.getFolder(input.readUTF());
+                        String[] ids = (String[]) input.readObject();
+                        ArrayList<Email> emails = new ArrayList<>();
+                        for (String id : ids) {
+                            Email email = folder != null ? findById(folder, id) : null;
+                            if (email != null) {
+                                emails.add(email);
+                            }
+                        }
+                        output.writeObject(emails);
+                    }
+                    case BYE -> {
+                        return;
+                    }
+                    default -> throw new IOException("Unknown sync request: " + request);
+                }
+                // Forget what was written so emails changed later are sent again in full, not as back references
+                output.reset();
+                output.flush();
+            }
+        } catch (ClassNotFoundException e) {
+            throw new IOException("Invalid sync request", e);
+        }
+    }
+
+    /**
+     * Updates a mailbox to match the one served on the other end of the streams: creates and removes folders,
+     * and adds, replaces and removes emails so every folder holds the same emails as on the source
+     * @param target the mailbox to update
+     * @param in the stream answers arrive on
+     * @param out the stream requests are written to
+     * @return what the sync changed
+     * @throws IOException if the connection fails
+     */
+    public static SyncResult pull(Mailbox target, InputStream in, OutputStream out) throws IOException {
+        ObjectOutputStream output = new ObjectOutputStream(out);
+        output.flush(); // Send the stream header before waiting for the other side's
+        ObjectInputStream input = new ObjectInputStream(in);
+        try {
+            // 1. Compare the roots; if they match the mailboxes are already the same
+            output.writeUTF(ROOT);
+            output.flush();
+            long remoteRoot = (Long) input.readObject();
+            long hashesCompared = 1;
+            if (remoteRoot == rootOf(target)) {
+                return new SyncResult(0, 0, 0, 0, 0, hashesCompared);
+            }
+
+            // 2. Compare the folders, creating the ones that are missing here
+            output.writeUTF(FOLDERS);
+            output.flush();
+            String[] names = (String[]) input.readObject();
+            long[] folderHashes = (long[]) input.readObject();
+            hashesCompared += folderHashes.length;
+            int foldersCreated = 0;
+            Set<String> remoteNames = new HashSet<>();
+            List<FolderChanges> changes = new ArrayList<>();
+            for (int i = 0; i < names.length; i++) {
+                remoteNames.add(names[i].toLowerCase(Locale.ROOT));
+                Folder folder = target.getFolder(names[i]);
+                if (folder == null) {
+                    folder = new Folder(names[i]);
+                    target.addFolder(folder);
+                    foldersCreated++;
+                }
+                if (folder.getDigest() != folderHashes[i]) {
+                    changes.add(new FolderChanges(folder));
+                }
+            }
+
+            // 3. Local emails that are removed from a folder go into a pool, so an email that moved to another
+            // folder on the source can be reused instead of fetched
+            Map<String, Email> pool = new HashMap<>();
+            List<Folder> removedFolders = new ArrayList<>();
+            for (Folder folder : target.getAllFolders()) {
+                if (!remoteNames.contains(folder.getName().toLowerCase(Locale.ROOT))) {
+                    removedFolders.add(folder);
+                    for (Email email : folder.getEmails()) {
+                        pool.put(email.getId(), email);
+                    }
+                }
+            }
+
+            // 4. Walk down the differing subtrees of each changed folder to find the changed emails
+            for (FolderChanges folderChanges : changes) {
+                hashesCompared += diffFolder(folderChanges, input, output, pool);
+            }
+
+            // 5. Reuse pooled emails where the content matches, fetch the rest
+            int messagesFetched = 0;
+            int messagesMoved = 0;
+            for (FolderChanges folderChanges : changes) {
+                List<String> fetch = new ArrayList<>();
+                for (Map.Entry<String, Long> entry : folderChanges.wanted.entrySet()) {
+                    Email local = pool.get(entry.getKey());
+                    if (local != null && local.getContentHash() == entry.getValue()) {
+                        pool.remove(entry.getKey());
+                        folderChanges.added.add(local);
+                        messagesMoved++;
+                    } else {
+                        fetch.add(entry.getKey());
+                    }
+                }
+                if (!fetch.isEmpty()) {
+                    output.writeUTF(FETCH);
+                    output.writeUTF(folderChanges.folder.getName());
+                    output.writeObject(fetch.toArray(new String[0]));
+                    output.flush();
+                    @SuppressWarnings("unchecked")
+                    List<Email> fetched = (List<Email>) input.readObject();
+                    folderChanges.added.addAll(fetched);
+                    messagesFetched += fetched.size();
+                }
+            }
+
+            // 6. Apply the changes; whatever is left in the pool was deleted or replaced on the source. Emails moved
+            // between folders are removed from one and added to another, so the changes are applied under the
+            // mailbox's lock to keep a checkpoint from seeing only some of them.
+            synchronized (target) {
+                for (FolderChanges folderChanges : changes) {
+                    target.replaceEmails(folderChanges.folder, folderChanges.removed, folderChanges.added);
+                }
+            }
+            for (Folder folder : removedFolders) {
+                target.removeFolder(folder.getName());
+            }
+            return new SyncResult(foldersCreated, removedFolders.size(), messagesFetched, messagesMoved, pool.size(),
+                    hashesCompared);
+        } catch (ClassNotFoundException | ClassCastException e) {
+            throw new IOException("Invalid sync answer", e);
+        } finally {
+            output.writeUTF(BYE);
+            output.flush();
+        }
+    }
+
+    /**
+     * Makes the store in one directory a replica of the store in another, with the two sides talking over a
+     * pipe. Only the target folders that changed are rewritten when the target is saved.
+     * @param source the directory of the store to copy from
+     * @param target the directory of the store to update (created if it does not exist)
+     * @return what the sync changed
+     * @throws IOException if either store cannot be read or the target cannot be saved
+     */
+    public static SyncResult syncStores(Path source, Path target) throws IOException {
+        MailboxStore sourceStore = new MailboxStore(source);
+        if (!sourceStore.exists()) {
+            throw new IOException("No mailbox store in " + source);
+        }
+        Mailbox sourceMailbox = sourceStore.load();
+        MailboxStore targetStore = new MailboxStore(target);
+        Mailbox targetMailbox = targetStore.exists() ? targetStore.load() : Mailbox.createEmpty();
+
+        PipedInputStream serverIn = new PipedInputStream(PIPE_SIZE);
+        PipedOutputStream clientOut = new PipedOutputStream(serverIn);
+        PipedInputStream clientIn = new PipedInputStream(PIPE_SIZE);
+        PipedOutputStream serverOut = new PipedOutputStream(clientIn);
+        Thread server = new Thread(() -> {
+            try (serverIn; serverOut) {
+                serve(sourceMailbox, serverIn, serverOut);
+            } catch (IOException e) {
+                System.out.println("Error serving sync: " + e.getMessage());
+            }
+        }, "mailbox-sync-source");
+        server.setDaemon(true);
+        server.start();
+
+        SyncResult result;
+        try (clientIn; clientOut) {
+            result = pull(targetMailbox, clientIn, clientOut);
+        }
+        try {
+            server.join();
+        } catch (InterruptedException e) {
+            Thread.currentThread().interrupt();
+        }
+        targetStore.checkpoint(targetMailbox);
+        return result;
+    }
+
+    /**
+     * Syncs two mailbox stores on this machine
+     * @param args the source store directory and the target store directory
+     */
+    public static void main(String[] args) {
+        if (args.length != 2) {
+            System.out.println("Usage: java MailboxSync <source store> <target store>");
+            return;
+        }
+        try {
+            SyncResult result = syncStores(Paths.get(args[0]), Paths.get(args[1]));
+            System.out.println("Sync complete: " + result + ".");
+        } catch (IOException e) {
+            System.out.println("Error syncing mailboxes: " + e.getMessage());
+        }
+    }
+
+    /**
+     * Helper Function to find the emails of one folder that differ from the source. Descends one level at a
+     * time, asking only for the children of nodes whose hashes differ, then compares the leaves of the differing
+     * buckets. Local emails that differ go into the folder's removed list and the pool; source emails that differ
+     * go into the folder's wanted map.
+     * @return the number of hashes received
+     */
+    private static long diffFolder(FolderChanges changes, ObjectInputStream input, ObjectOutputStream output,
+                                   Map<String, Email> pool) throws IOException, ClassNotFoundException {
+        Folder folder = changes.folder;
+        long hashesCompared = 0;
+        int[] nodes = {0};
+        for (int level = 0; level < FolderDigest.DEPTH && nodes.length > 0; level++) {
+            output.writeUTF(NODES);
+            output.writeUTF(folder.getName());
+            output.writeInt(level);
+            output.writeObject(nodes);
+            output.flush();
+            long[] remote = (long[]) input.readObject();
+            long[] local = folder.getDigestChildren(level, nodes);
+            hashesCompared += remote.length;
+            List<Integer> differing = new ArrayList<>();
+            for (int i = 0; i < remote.length; i++) {
+                if (remote[i] != local[i]) {
+                    differing.add(nodes[i / FolderDigest.FANOUT] * FolderDigest.FANOUT + i % FolderDigest.FANOUT);
+                }
+            }
+            nodes = differing.stream().mapToInt(Integer::intValue).toArray();
+        }
+        if (nodes.length == 0) {
+            return hashesCompared;
+        }
+
+        output.writeUTF(BUCKETS);
+        output.writeUTF(folder.getName());
+        output.writeObject(nodes);
+        output.flush();
+        String[] ids = (String[]) input.readObject();
+        long[] hashes = (long[]) input.readObject();
+        hashesCompared += hashes.length;
+        Map<String, Long> remoteLeaves = new HashMap<>();
+        for (int i = 0; i < ids.length; i++) {
+            remoteLeaves.put(ids[i], hashes[i]);
+        }
+        for (int bucket : nodes) {
+            for (FolderDigest.Leaf leaf : folder.getDigestBucket(bucket)) {
+                Long remoteHash = remoteLeaves.get(leaf.email().getId());
+                if (remoteHash != null && remoteHash == leaf.hash()) {
+                    remoteLeaves.remove(leaf.email().getId()); // Same email on both sides
+                } else {
+                    changes.removed.add(leaf.email());
+                    pool.put(leaf.email().getId(), leaf.email());
+                }
+            }
+        }
+        changes.wanted.putAll(remoteLeaves);
+        return hashesCompared;
+    }
+
+    /**
+     * Helper Function to find an email of a folder by id, looking only in the id's bucket
+     */
+    private static Email findById(Folder folder, String id) {
+        for (FolderDigest.Leaf leaf : folder.getDigestBucket(FolderDigest.bucketOf(id))) {
+            if (leaf.email().getId().equals(id)) {
+                return leaf.email();
+            }
+        }
+        return null;
+    }
+
+    /**
+     * Helper Function to compute the root hash of a mailbox from its folder names and folder hashes. The result
+     * does not depend on the order of the folders, and an empty folder still changes it.
+     */
+    private static long rootOf(Mailbox mailbox) {
+        long root = 0;
+        for (Folder folder : mailbox.getAllFolders()) {
+            long h = folder.getName().toLowerCase(Locale.ROOT).hashCode() * 0x9E3779B97F4A7C15L + folder.getDigest();
+            h ^= h >>> 31;
+            h *= 0xBF58476D1CE4E5B9L;
+            root += h ^ (h >>> 29);
+        }
+        return root;
+    }
+}
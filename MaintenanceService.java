@@ -0,0 +1,255 @@
+import java.io.IOException;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.Collections;
+import java.util.Comparator;
+import java.util.IdentityHashMap;
+import java.util.Iterator;
+import java.util.List;
+import java.util.Set;
+import java.util.concurrent.Executors;
+import java.util.concurrent.ScheduledExecutorService;
+import java.util.concurrent.TimeUnit;
+
+/**
+ * MaintenanceService applies the mailbox's retention policies in the background. Each pass checks every policy
+ * against its folder's summary, which costs O(1), and only looks at the emails of folders that hold something to
+ * purge. Expired emails are chosen from a snapshot without holding any lock and then removed in small batches;
+ * each batch holds the folder's lock for O(batch log n) time and the service sleeps between batches, so
+ * interactive operations are never held up for long. When a pass purged anything, the store is checkpointed and
+ * compacted to give the space back.
+ *
+ * @author Kenny
+ **/
+public class MaintenanceService {
+    private static final int BATCH_SIZE = 256; // Emails removed per batch
+    private static final long BATCH_GAP_MILLIS = 5; // Pause between batches so other threads get the folder lock
+    private static final int MAX_CONFLICTS = 20; // Times a folder may change under a batch before the pass gives up
+
+    /**
+     * What one maintenance pass did
+     * @param messagesPurged the number of emails purged
+     * @param bytesPurged the combined size of the purged emails
+     * @param bytesReclaimed the number of bytes the store shrank by on disk
+     * @param passMillis how long the whole pass took
+     * @param maxPauseMicros the longest time a batch held a folder's lock, in microseconds
+     */
+    public record PassReport(int messagesPurged, long bytesPurged, long bytesReclaimed, long passMillis,
+                             long maxPauseMicros) {
+        @Override
+        public String toString() {
+            return "purged " + messagesPurged + " email(s) (" + FolderSummary.formatBytes(bytesPurged)
+                    + "), reclaimed " + FolderSummary.formatBytes(bytesReclaimed) + " on disk; pass took "
+                    + passMillis + " ms, longest pause " + String.format("%.2f", maxPauseMicros / 1000.0) + " ms";
+        }
+    }
+
+    private final Mailbox mailbox;
+    private final MailboxStore store;
+    private ScheduledExecutorService executor;
+    // Totals of the pass being run; passes never overlap because runPass is synchronized
+    private int messagesPurged;
+    private long bytesPurged;
+    private long maxPauseNanos;
+
+    /**
+     * Constructs a service for a mailbox
+     * @param mailbox the mailbox whose policies are applied
+     * @param store the store to checkpoint and compact after purging (null to leave saving to the caller)
+     */
+    public MaintenanceService(Mailbox mailbox, MailboxStore store) {
+        this.mailbox = mailbox;
+        this.store = store;
+    }
+
+    /**
+     * Starts running a pass at a fixed interval on a background thread. Passes that purged nothing stay quiet.
+     * @param intervalMinutes the time between the end of one pass and the start of the next
+     */
+    public synchronized void start(long intervalMinutes) {
+        if (executor != null) {
+            return;
+        }
+        executor = Executors.newSingleThreadScheduledExecutor(task -> {
+            Thread thread = new Thread(task, "mailbox-maintenance");
+            thread.setDaemon(true); // Never keep the program running just for maintenance
+            thread.setPriority(Thread.MIN_PRIORITY);
+            return thread;
+        });
+        executor.scheduleWithFixedDelay(() -> {
+            PassReport report = runPass();
+            if (report.messagesPurged() > 0) {
+                System.out.println("Maintenance: " + report + ".");
+            }
+        }, intervalMinutes, intervalMinutes, TimeUnit.MINUTES);
+    }
+
+    /**
+     * Stops the background passes; a pass already running finishes first
+     */
+    public synchronized void stop() {
+        if (executor != null) {
+            executor.shutdown();
+            executor = null;
+        }
+    }
+
+    /**
+     * Runs one maintenance pass: purges every folder over its retention limits, then checkpoints and compacts
+     * the store if anything was purged
+     * @return what the pass did
+     */
+    public synchronized PassReport runPass() {
+        long start = System.nanoTime();
+        messagesPurged = 0;
+        bytesPurged = 0;
+        maxPauseNanos = 0;
+        long now = System.currentTimeMillis();
+        for (RetentionPolicy policy : mailbox.getRetentionPolicies()) {
+            Folder folder = mailbox.getFolder(policy.getFolderName());
+            // The summary tells whether anything is past the limits without touching the emails
+            if (folder != null && policy.isExceeded(folder.getSummary(), now)) {
+                purge(folder, policy, now);
+            }
+        }
+
+        long bytesReclaimed = 0;
+        if (messagesPurged > 0 && store != null) {
+            try {
+                long before = store.sizeOnDisk();
+                store.checkpoint(mailbox);
+                store.compact();
+                bytesReclaimed = Math.max(0, before - store.sizeOnDisk());
+            } catch (IOException e) {
+                System.out.println("Error compacting mailbox store: " + e.getMessage());
+            }
+        }
+        return new PassReport(messagesPurged, bytesPurged, bytesReclaimed,
+                TimeUnit.NANOSECONDS.toMillis(System.nanoTime() - start),
+                TimeUnit.NANOSECONDS.toMicros(maxPauseNanos));
+    }
+
+    /**
+     * Helper Function to purge one folder down to its policy's limits in batches. The emails to purge are chosen
+     * once; if the folder changes while a batch is waiting for the lock, their positions are looked up again in
+     * the new version of the folder.
+     * @param folder the folder to purge
+     * @param policy the folder's policy
+     * @param now the current time in milliseconds
+     */
+    private void purge(Folder folder, RetentionPolicy policy, long now) {
+        Folder copy = folder.snapshot().copy(); // Emails and entry times of the same version
+        Set<Email> expired = selectExpired(copy.getEmails(), copy.getEntryTimes(), policy, now);
+        int conflicts = 0;
+        while (!expired.isEmpty() && conflicts <= MAX_CONFLICTS) {
+            List<Email> snapshot = folder.getEmails();
+            int[] positions = positionsOf(snapshot, expired);
+            if (positions.length == 0) {
+                return; // Everything chosen was already removed by someone else
+            }
+            int removed = 0; // Positions already removed; later positions shift down by this much
+            while (removed < positions.length) {
+                int count = Math.min(BATCH_SIZE, positions.length - removed);
+                int[] batch = new int[count];
+                List<Email> batchEmails = new ArrayList<>(count);
+                for (int i = 0; i < count; i++) {
+                    batch[i] = positions[removed + i] - removed;
+                    batchEmails.add(snapshot.get(batch[i]));
+                }
+
+                long pauseStart = System.nanoTime();
+                List<Email> next = mailbox.purgeEmails(folder, snapshot, batch);
+                maxPauseNanos = Math.max(maxPauseNanos, System.nanoTime() - pauseStart);
+                if (next == null) {
+                    // The folder changed, so the positions are stale; back off in case it is busy, then look again
+                    conflicts++;
+                    try {
+                        Thread.sleep(BATCH_GAP_MILLIS << Math.min(conflicts, 8));
+                    } catch (InterruptedException e) {
+                        Thread.currentThread().interrupt();
+                        return;
+                    }
+                    break;
+                }
+                snapshot = next;
+                removed += count;
+                for (Email email : batchEmails) {
+                    expired.remove(email);
+                    messagesPurged++;
+                    bytesPurged += email.getSize();
+                }
+
+                try {
+                    Thread.sleep(BATCH_GAP_MILLIS); // Let interactive operations in between batches
+                } catch (InterruptedException e) {
+                    Thread.currentThread().interrupt();
+                    return;
+                }
+            }
+        }
+    }
+
+    /**
+     * Helper Function to choose the emails a policy purges: every email in the folder for longer than the age
+     * limit, then the remaining emails that have been there longest until the folder fits the size limit
+     * @param snapshot the emails of the folder
+     * @param entryTimes when each email was put in the folder, in the same order
+     * @param policy the folder's policy
+     * @param now the current time in milliseconds
+     * @return the emails to purge
+     */
+    private static Set<Email> selectExpired(List<Email> snapshot, List<Long> entryTimes, RetentionPolicy policy,
+                                            long now) {
+        Set<Email> expired = Collections.newSetFromMap(new IdentityHashMap<>());
+        long cutoff = policy.cutoffMillis(now);
+        long keptBytes = 0;
+        List<Email> kept = new ArrayList<>();
+        List<Long> keptTimes = new ArrayList<>();
+        Iterator<Long> times = entryTimes.iterator();
+        for (Email email : snapshot) {
+            long entered = times.next();
+            if (entered < cutoff) {
+                expired.add(email);
+            } else {
+                keptBytes += email.getSize();
+                kept.add(email);
+                keptTimes.add(entered);
+            }
+        }
+        // Only sort when the size limit still has to remove the emails that have been in the folder longest
+        if (policy.getMaxBytes() > 0 && keptBytes > policy.getMaxBytes()) {
+            Integer[] order = new Integer[kept.size()];
+            for (int i = 0; i < order.length; i++) {
+                order[i] = i;
+            }
+            Arrays.sort(order, Comparator.comparingLong(keptTimes::get));
+            for (int i : order) {
+                if (keptBytes <= policy.getMaxBytes()) {
+                    break;
+                }
+                expired.add(kept.get(i));
+                keptBytes -= kept.get(i).getSize();
+            }
+        }
+        return expired;
+    }
+
+    /**
+     * Helper Function to find the positions of some emails in a version of a folder
+     * @param snapshot the version of the folder
+     * @param emails the emails to find
+     * @return their positions, in ascending order
+     */
+    private static int[] positionsOf(List<Email> snapshot, Set<Email> emails) {
+        int[] positions = new int[emails.size()];
+        int count = 0;
+        int position = 0;
+        for (Email email : snapshot) {
+            if (emails.contains(email) && count < positions.length) {
+                positions[count++] = position;
+            }
+            position++;
+        }
+        return Arrays.copyOf(positions, count);
+    }
+}
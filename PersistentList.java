@@ -0,0 +1,316 @@
+import java.util.AbstractList;
+import java.util.ArrayDeque;
+import java.util.Collection;
+import java.util.Iterator;
+import java.util.NoSuchElementException;
+import java.util.Objects;
+import java.util.concurrent.ThreadLocalRandom;
+
+/**
+ * PersistentList is an immutable list backed by a path-copying treap (a randomly balanced binary tree
+ * ordered by position). Every "modifying" method returns a new list and leaves the original untouched;
+ * the new list shares all but O(log n) nodes with the old one, so keeping old versions around is cheap.
+ * The standard List mutators inherited from AbstractList throw UnsupportedOperationException.
+ *
+ * @param <E> the type of elements in the list
+ * @author Kenny
+ **/
+public final class PersistentList<E> extends AbstractList<E> {
+    private static final PersistentList<?> EMPTY = new PersistentList<>(null);
+
+    /**
+     * A tree node. Nodes are never modified once built, which is what makes sharing them safe.
+     */
+    private static final class Node<E> {
+        final E value;
+        final Node<E> left;
+        final Node<E> right;
+        final int size; // Number of nodes in this subtree
+        final int priority; // Heap priority; parents always have a priority >= their children
+
+        Node(E value, Node<E> left, Node<E> right, int priority) {
+            this.value = value;
+            this.left = left;
+            this.right = right;
+            this.size = 1 + size(left) + size(right);
+            this.priority = priority;
+        }
+
+        /**
+         * Copies this node with new children, keeping its value and priority
+         */
+        Node<E> withChildren(Node<E> newLeft, Node<E> newRight) {
+            return new Node<>(value, newLeft, newRight, priority);
+        }
+    }
+
+    private final Node<E> root;
+
+    private PersistentList(Node<E> root) {
+        this.root = root;
+    }
+
+    /**
+     * Returns the empty list
+     * @param <E> the type of elements in the list
+     * @return an empty list
+     */
+    @SuppressWarnings("unchecked")
+    public static <E> PersistentList<E> empty() {
+        return (PersistentList<E>) EMPTY;
+    }
+
+    /**
+     * Builds a list containing the given elements in iteration order in O(n) time
+     * @param elements the elements to copy
+     * @param <E> the type of elements in the list
+     * @return a list containing the elements
+     */
+    @SuppressWarnings("unchecked")
+    public static <E> PersistentList<E> of(Collection<? extends E> elements) {
+        if (elements instanceof PersistentList) {
+            return (PersistentList<E>) elements;
+        }
+        return of((E[]) elements.toArray());
+    }
+
+    /**
+     * Builds a list containing the given elements in order in O(n) time
+     * @param elements the elements to copy
+     * @param <E> the type of elements in the list
+     * @return a list containing the elements
+     */
+    public static <E> PersistentList<E> of(E[] elements) {
+        if (elements.length == 0) {
+            return empty();
+        }
+        // Build a Cartesian tree over random priorities with a stack holding the rightmost spine.
+        // Nodes are immutable, so the spine is kept as (value, priority, finished left subtree) and only
+        // turned into nodes when it is popped.
+        ThreadLocalRandom random = ThreadLocalRandom.current();
+        int[] priorities = new int[elements.length];
+        for (int i = 0; i < priorities.length; i++) {
+            priorities[i] = random.nextInt();
+        }
+        ArrayDeque<Integer> spine = new ArrayDeque<>(); // Indices of the rightmost path, top = deepest
+        @SuppressWarnings({"unchecked", "rawtypes"})
+        Node<E>[] leftOf = new Node[elements.length];
+        for (int i = 0; i < elements.length; i++) {
+            Node<E> popped = null;
+            // Everything on the spine with a lower priority becomes the new element's left subtree
+            while (!spine.isEmpty() && priorities[spine.peek()] < priorities[i]) {
+                int index = spine.pop();
+                popped = new Node<>(elements[index], leftOf[index], popped, priorities[index]);
+            }
+            leftOf[i] = popped;
+            spine.push(i);
+        }
+        Node<E> built = null;
+        while (!spine.isEmpty()) {
+            int index = spine.pop();
+            built = new Node<>(elements[index], leftOf[index], built, priorities[index]);
+        }
+        return new PersistentList<>(built);
+    }
+
+    /**
+     * Returns the element at the given position in O(log n) time
+     * @param index the position of the element
+     * @return the element at that position
+     */
+    @Override
+    public E get(int index) {
+        checkIndex(index, size());
+        Node<E> node = root;
+        while (true) {
+            int leftSize = size(node.left);
+            if (index < leftSize) {
+                node = node.left;
+            } else if (index == leftSize) {
+                return node.value;
+            } else {
+                index -= leftSize + 1;
+                node = node.right;
+            }
+        }
+    }
+
+    /**
+     * Returns the number of elements in O(1) time
+     * @return the size of the list
+     */
+    @Override
+    public int size() {
+        return size(root);
+    }
+
+    /**
+     * Returns a new list with the element appended at the end
+     * @param element the element to append
+     * @return the new list
+     */
+    public PersistentList<E> plus(E element) {
+        return plus(size(), element);
+    }
+
+    /**
+     * Returns a new list with the element inserted at the given position
+     * @param index the position to insert at (0 to size inclusive)
+     * @param element the element to insert
+     * @return the new list
+     */
+    public PersistentList<E> plus(int index, E element) {
+        checkIndex(index, size() + 1);
+        Node<E>[] parts = split(root, index);
+        Node<E> single = new Node<>(element, null, null, ThreadLocalRandom.current().nextInt());
+        return new PersistentList<>(merge(merge(parts[0], single), parts[1]));
+    }
+
+    /**
+     * Returns a new list with the element at the given position removed
+     * @param index the position of the element to remove
+     * @return the new list
+     */
+    public PersistentList<E> minus(int index) {
+        checkIndex(index, size());
+        Node<E>[] parts = split(root, index);
+        Node<E>[] rest = split(parts[1], 1);
+        return new PersistentList<>(merge(parts[0], rest[1]));
+    }
+
+    /**
+     * Returns a new list with the element at the given position replaced
+     * @param index the position of the element to replace
+     * @param element the new element
+     * @return the new list
+     */
+    public PersistentList<E> with(int index, E element) {
+        checkIndex(index, size());
+        return new PersistentList<>(replace(root, index, element));
+    }
+
+    /**
+     * Finds the first position of an element with a single in-order pass, O(n) rather than one O(log n) get
+     * per position
+     * @param element the element to find
+     * @return its first position, or -1 if it is not in the list
+     */
+    @Override
+    public int indexOf(Object element) {
+        int index = 0;
+        for (E value : this) {
+            if (Objects.equals(element, value)) {
+                return index;
+            }
+            index++;
+        }
+        return -1;
+    }
+
+    /**
+     * Checks whether the list holds an element with a single in-order pass
+     * @param element the element to find
+     * @return true if the element is in the list
+     */
+    @Override
+    public boolean contains(Object element) {
+        return indexOf(element) >= 0;
+    }
+
+    /**
+     * Iterates over the elements in order using an explicit stack, O(n) for a full pass
+     * @return an iterator over the list
+     */
+    @Override
+    public Iterator<E> iterator() {
+        return new Iterator<>() {
+            private final ArrayDeque<Node<E>> stack = new ArrayDeque<>();
+            {
+                pushLeft(root);
+            }
+
+            private void pushLeft(Node<E> node) {
+                while (node != null) {
+                    stack.push(node);
+                    node = node.left;
+                }
+            }
+
+            @Override
+            public boolean hasNext() {
+                return !stack.isEmpty();
+            }
+
+            @Override
+            public E next() {
+                if (stack.isEmpty()) {
+                    throw new NoSuchElementException();
+                }
+                Node<E> node = stack.pop();
+                pushLeft(node.right);
+                return node.value;
+            }
+        };
+    }
+
+    /**
+     * Helper Function to split a tree into the first count elements and the rest
+     * @return a two element array of {first part, second part}
+     */
+    @SuppressWarnings({"unchecked", "rawtypes"})
+    private static <E> Node<E>[] split(Node<E> node, int count) {
+        if (node == null) {
+            return new Node[]{null, null};
+        }
+        int leftSize = size(node.left);
+        if (count <= leftSize) {
+            Node<E>[] parts = split(node.left, count);
+            return new Node[]{parts[0], node.withChildren(parts[1], node.right)};
+        }
+        Node<E>[] parts = split(node.right, count - leftSize - 1);
+        return new Node[]{node.withChildren(node.left, parts[0]), parts[1]};
+    }
+
+    /**
+     * Helper Function to join two trees where every element of left comes before every element of right
+     * @return the joined tree
+     */
+    private static <E> Node<E> merge(Node<E> left, Node<E> right) {
+        if (left == null) {
+            return right;
+        }
+        if (right == null) {
+            return left;
+        }
+        // The higher priority root stays on top to keep the heap property
+        if (left.priority >= right.priority) {
+            return left.withChildren(left.left, merge(left.right, right));
+        }
+        return right.withChildren(merge(left, right.left), right.right);
+    }
+
+    /**
+     * Helper Function to copy the path to a position, replacing the element there
+     * @return the new subtree
+     */
+    private static <E> Node<E> replace(Node<E> node, int index, E element) {
+        int leftSize = size(node.left);
+        if (index < leftSize) {
+            return node.withChildren(replace(node.left, index, element), node.right);
+        }
+        if (index == leftSize) {
+            return new Node<>(element, node.left, node.right, node.priority);
+        }
+        return node.withChildren(node.left, replace(node.right, index - leftSize - 1, element));
+    }
+
+    private static int size(Node<?> node) {
+        return node == null ? 0 : node.size;
+    }
+
+    private static void checkIndex(int index, int bound) {
+        if (index < 0 || index >= bound) {
+            throw new IndexOutOfBoundsException("Index: " + index + ", Size: " + bound);
+        }
+    }
+}
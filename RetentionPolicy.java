@@ -0,0 +1,96 @@
+import java.io.Serial;
+import java.io.Serializable;
+import java.util.concurrent.TimeUnit;
+
+/**
+ * RetentionPolicy limits how long mail is kept in a folder and how large the folder may grow.
+ * Emails that have been in the folder longer than the maximum age are purged, and if the folder is still larger
+ * than the maximum size the emails that have been there longest are purged until it fits. Age is counted from
+ * when an email was put in the folder, not from its timestamp, so old mail moved to a folder gets the full time.
+ * A limit of 0 means no limit.
+ *
+ * @author Kenny
+ **/
+public class RetentionPolicy implements Serializable {
+    @Serial
+    private static final long serialVersionUID = 1L;
+    private final String folderName;
+    private final int maxAgeDays;
+    private final long maxBytes;
+
+    /**
+     * Constructs a policy for a folder
+     * @param folderName the name of the folder the policy applies to
+     * @param maxAgeDays the number of days emails are kept in the folder (0 to keep them regardless of age)
+     * @param maxBytes the largest total size of the folder in bytes (0 for no size limit)
+     */
+    public RetentionPolicy(String folderName, int maxAgeDays, long maxBytes) {
+        this.folderName = folderName;
+        this.maxAgeDays = Math.max(0, maxAgeDays);
+        this.maxBytes = Math.max(0, maxBytes);
+    }
+
+    // Getters for the folder name and limits
+    public String getFolderName() {
+        return folderName;
+    }
+
+    public int getMaxAgeDays() {
+        return maxAgeDays;
+    }
+
+    public long getMaxBytes() {
+        return maxBytes;
+    }
+
+    /**
+     * Checks whether the policy sets any limit
+     * @return true if the policy has an age or size limit
+     */
+    public boolean hasLimits() {
+        return maxAgeDays > 0 || maxBytes > 0;
+    }
+
+    /**
+     * Returns the time before which emails put in the folder are purged
+     * @param nowMillis the current time in milliseconds
+     * @return the cutoff in milliseconds (Long.MIN_VALUE if there is no age limit)
+     */
+    public long cutoffMillis(long nowMillis) {
+        return maxAgeDays > 0 ? nowMillis - TimeUnit.DAYS.toMillis(maxAgeDays) : Long.MIN_VALUE;
+    }
+
+    /**
+     * Checks from a folder's summary alone whether the folder holds anything to purge, so folders within their
+     * limits are skipped without looking at their emails
+     * @param summary the folder's summary
+     * @param nowMillis the current time in milliseconds
+     * @return true if the email in the folder longest is past the age limit or the folder is over the size limit
+     */
+    public boolean isExceeded(FolderSummary summary, long nowMillis) {
+        if (summary.messageCount() == 0) {
+            return false;
+        }
+        return summary.oldestEntryMillis() < cutoffMillis(nowMillis)
+                || (maxBytes > 0 && summary.totalBytes() > maxBytes);
+    }
+
+    /**
+     * Returns a readable description of the policy, e.g. "Trash: older than 30 days, over 10.0 MB"
+     * @return the description
+     */
+    @Override
+    public String toString() {
+        StringBuilder description = new StringBuilder(folderName).append(":");
+        if (maxAgeDays > 0) {
+            description.append(" older than ").append(maxAgeDays).append(maxAgeDays == 1 ? " day" : " days");
+        }
+        if (maxBytes > 0) {
+            description.append(maxAgeDays > 0 ? "," : "").append(" over ").append(FolderSummary.formatBytes(maxBytes));
+        }
+        if (!hasLimits()) {
+            description.append(" no limits");
+        }
+        return description.toString();
+    }
+}
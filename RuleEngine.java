@@ -0,0 +1,188 @@
+import java.io.IOException;
+import java.io.ObjectOutputStream;
+import java.io.Serial;
+import java.io.Serializable;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.HashMap;
+import java.util.List;
+
+/**
+ * RuleEngine holds the mailbox's filing rules and decides which folder an incoming email belongs in.
+ * All keywords from all rules are compiled into one KeywordMatcher, so each field of an email is scanned
+ * exactly once regardless of how many rules exist. Only rules touched by a keyword hit (plus rules that
+ * have no keywords at all) are checked afterwards, which keeps the cost per email roughly constant.
+ * Rules are checked in the order they were added; the first matching rule wins.
+ *
+ * @author Kenny
+ **/
+public class RuleEngine implements Serializable {
+    @Serial
+    private static final long serialVersionUID = 1L;
+
+    // Bit flags for the fields a keyword can be matched against
+    private static final int ADDRESS = 1;
+    private static final int SUBJECT = 2;
+    private static final int BODY = 4;
+
+    private final ArrayList<FilingRule> rules;
+
+    // Compiled state is rebuilt on demand after a change or after the engine is deserialized
+    private transient KeywordMatcher matcher;
+    private transient ArrayList<int[]> postings; // Keyword id -> pairs of (rule index, field flag)
+    private transient int[] requiredFields; // Rule index -> fields that must have a keyword hit
+    private transient ArrayList<Integer> keywordlessRules; // Rules that only check the date range
+
+    /**
+     * Constructs an engine with no rules
+     */
+    public RuleEngine() {
+        this.rules = new ArrayList<>();
+    }
+
+    /**
+     * Adds a rule after all existing rules
+     * @param rule the rule to add
+     */
+    public synchronized void addRule(FilingRule rule) {
+        rules.add(rule);
+        matcher = null;
+    }
+
+    /**
+     * Removes a rule by index
+     * @param index the index of the rule to remove
+     * @return the removed rule, or null if the index is invalid
+     */
+    public synchronized FilingRule removeRule(int index) {
+        if (index >= 0 && index < rules.size()) {
+            matcher = null;
+            return rules.remove(index);
+        }
+        return null;
+    }
+
+    /**
+     * Returns a copy of the rules in evaluation order
+     * @return the list of rules
+     */
+    public synchronized List<FilingRule> getRules() {
+        return new ArrayList<>(rules);
+    }
+
+    /**
+     * Finds the folder an email should be filed into
+     * @param email the incoming email
+     * @return the target folder name of the first matching rule, or null if no rule matches
+     */
+    public synchronized String findTargetFolder(Email email) {
+        if (rules.isEmpty()) {
+            return null;
+        }
+        if (matcher == null) {
+            compile();
+        }
+
+        // Rule index -> fields that have had at least one keyword hit
+        HashMap<Integer, Integer> hits = new HashMap<>();
+        scanField(email.getTo(), ADDRESS, hits);
+        scanField(email.getCc(), ADDRESS, hits);
+        scanField(email.getBcc(), ADDRESS, hits);
+        scanField(email.getSubject(), SUBJECT, hits);
+        scanField(email.getBody(), BODY, hits);
+
+        // Pick the earliest rule whose required fields all matched and whose date range fits
+        int best = Integer.MAX_VALUE;
+        for (var hit : hits.entrySet()) {
+            int ruleIndex = hit.getKey();
+            if (ruleIndex < best && (hit.getValue() & requiredFields[ruleIndex]) == requiredFields[ruleIndex]
+                    && rules.get(ruleIndex).matchesDate(email.getTimestamp())) {
+                best = ruleIndex;
+            }
+        }
+        for (int ruleIndex : keywordlessRules) {
+            if (ruleIndex >= best) {
+                break; // Sorted ascending, nothing further can beat the current best
+            }
+            if (rules.get(ruleIndex).matchesDate(email.getTimestamp())) {
+                best = ruleIndex;
+            }
+        }
+        return best == Integer.MAX_VALUE ? null : rules.get(best).getTargetFolder();
+    }
+
+    /**
+     * Helper Function to scan one field and record which rules it satisfied
+     * @param text the field text
+     * @param field the field flag
+     * @param hits the rule index -> matched fields map to update
+     */
+    private void scanField(String text, int field, HashMap<Integer, Integer> hits) {
+        matcher.scan(text, keywordId -> {
+            int[] entries = postings.get(keywordId);
+            for (int i = 0; i < entries.length; i += 2) {
+                if (entries[i + 1] == field) {
+                    hits.merge(entries[i], field, (a, b) -> a | b);
+                }
+            }
+        });
+    }
+
+    /**
+     * Compiles every rule's keywords into a single automaton
+     */
+    private void compile() {
+        matcher = new KeywordMatcher();
+        postings = new ArrayList<>();
+        requiredFields = new int[rules.size()];
+        keywordlessRules = new ArrayList<>();
+
+        for (int ruleIndex = 0; ruleIndex < rules.size(); ruleIndex++) {
+            FilingRule rule = rules.get(ruleIndex);
+            requiredFields[ruleIndex] = addKeywords(rule.getAddressKeywords(), ruleIndex, ADDRESS)
+                    | addKeywords(rule.getSubjectKeywords(), ruleIndex, SUBJECT)
+                    | addKeywords(rule.getBodyKeywords(), ruleIndex, BODY);
+            if (requiredFields[ruleIndex] == 0) {
+                keywordlessRules.add(ruleIndex);
+            }
+        }
+        matcher.compile();
+    }
+
+    /**
+     * Helper Function to add one keyword list of a rule to the automaton
+     * @param keywords the keywords to add
+     * @param ruleIndex the index of the rule that owns them
+     * @param field the field flag the keywords apply to
+     * @return the field flag if at least one usable keyword was added, otherwise 0
+     */
+    private int addKeywords(List<String> keywords, int ruleIndex, int field) {
+        int required = 0;
+        for (String keyword : keywords) {
+            int keywordId = matcher.addKeyword(keyword);
+            if (keywordId == -1) {
+                continue; // Blank keyword
+            }
+            if (keywordId == postings.size()) {
+                postings.add(new int[0]);
+            }
+            int[] entries = postings.get(keywordId);
+            int[] extended = Arrays.copyOf(entries, entries.length + 2);
+            extended[entries.length] = ruleIndex;
+            extended[entries.length + 1] = field;
+            postings.set(keywordId, extended);
+            required = field;
+        }
+        return required;
+    }
+
+    /**
+     * Writes the rules while holding the engine's lock, so a background checkpoint never sees the list while a
+     * rule is being added or removed
+     * @param out the stream to write to
+     */
+    @Serial
+    private synchronized void writeObject(ObjectOutputStream out) throws IOException {
+        out.defaultWriteObject();
+    }
+}
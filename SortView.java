@@ -0,0 +1,261 @@
+import java.text.CollationKey;
+import java.text.Collator;
+import java.util.AbstractList;
+import java.util.HashMap;
+import java.util.List;
+
+/**
+ * SortView is a sorted, read-only view of one version of a folder. Instead of reordering the folder's emails it
+ * holds a permutation of row indices, so any number of views with different orders can share the same folder.
+ * Sort keys are precomputed once per folder version and shared by every view of that version: timestamps and
+ * sizes as primitive longs, subjects and recipients as locale-aware collation keys.
+ *
+ * @author Kenny
+ **/
+public final class SortView extends AbstractList<Email> {
+    /**
+     * The fields an email can be sorted by
+     */
+    public enum Key {
+        DATE,
+        SUBJECT,
+        RECIPIENT, // The To field
+        SIZE
+    }
+
+    /**
+     * One level of a multi-key sort
+     * @param key the field to compare
+     * @param ascending true for ascending order, false for descending
+     */
+    public record Criterion(Key key, boolean ascending) {
+    }
+
+    /**
+     * Compares two rows by index
+     */
+    private interface RowComparator {
+        int compare(int row1, int row2);
+    }
+
+    private final Columns columns;
+    private final int[] order; // order[i] = row shown at position i
+
+    /**
+     * Builds a view by sorting the row indices of the columns
+     * @param columns the precomputed keys of the folder version
+     * @param criteria the sort keys, most significant first
+     */
+    private SortView(Columns columns, List<Criterion> criteria) {
+        this.columns = columns;
+        this.order = new int[columns.rows.length];
+        for (int i = 0; i < order.length; i++) {
+            order[i] = i;
+        }
+        RowComparator comparator = comparatorFor(columns, criteria);
+        mergeSort(order, new int[order.length], 0, order.length, comparator);
+    }
+
+    /**
+     * Returns the email at a position in the view's order in O(1) time
+     * @param index the position in the view
+     * @return the email at that position
+     */
+    @Override
+    public Email get(int index) {
+        return columns.rows[order[index]];
+    }
+
+    @Override
+    public int size() {
+        return order.length;
+    }
+
+    /**
+     * Returns the folder version this view was built from
+     * @return the unsorted snapshot of the folder
+     */
+    public List<Email> getSnapshot() {
+        return columns.snapshot;
+    }
+
+    /**
+     * Returns the sort criteria that match one of the Folder sorting method names, each with a secondary key
+     * so emails with equal primary keys still have a stable, sensible order
+     * @param sortingMethod the sorting method name, e.g. "dateDescending"
+     * @return the criteria for that method (date descending if the name is not recognized)
+     */
+    public static List<Criterion> criteriaFor(String sortingMethod) {
+        return switch (sortingMethod == null ? "" : sortingMethod) {
+            case "subjectAscending" -> List.of(new Criterion(Key.SUBJECT, true), new Criterion(Key.DATE, false));
+            case "subjectDescending" -> List.of(new Criterion(Key.SUBJECT, false), new Criterion(Key.DATE, false));
+            case "dateAscending" -> List.of(new Criterion(Key.DATE, true), new Criterion(Key.SUBJECT, true));
+            default -> List.of(new Criterion(Key.DATE, false), new Criterion(Key.SUBJECT, true));
+        };
+    }
+
+    /**
+     * Helper Function to build a comparator over the columns for a list of criteria
+     */
+    private static RowComparator comparatorFor(Columns columns, List<Criterion> criteria) {
+        int count = criteria.size();
+        RowComparator[] levels = new RowComparator[count];
+        for (int i = 0; i < count; i++) {
+            Criterion criterion = criteria.get(i);
+            RowComparator level = switch (criterion.key()) {
+                case DATE -> {
+                    long[] dates = columns.dates();
+                    yield (a, b) -> Long.compare(dates[a], dates[b]);
+                }
+                case SIZE -> {
+                    long[] sizes = columns.sizes();
+                    yield (a, b) -> Long.compare(sizes[a], sizes[b]);
+                }
+                case SUBJECT -> {
+                    CollationKey[] subjects = columns.subjects();
+                    yield (a, b) -> subjects[a].compareTo(subjects[b]);
+                }
+                case RECIPIENT -> {
+                    CollationKey[] recipients = columns.recipients();
+                    yield (a, b) -> recipients[a].compareTo(recipients[b]);
+                }
+            };
+            levels[i] = criterion.ascending() ? level : (a, b) -> level.compare(b, a);
+        }
+        return (a, b) -> {
+            for (RowComparator level : levels) {
+                int result = level.compare(a, b);
+                if (result != 0) {
+                    return result;
+                }
+            }
+            return 0;
+        };
+    }
+
+    /**
+     * Helper Function for a stable merge sort of row indices, so equal rows keep their folder order
+     */
+    private static void mergeSort(int[] rows, int[] scratch, int from, int to, RowComparator comparator) {
+        if (to - from < 2) {
+            return;
+        }
+        int middle = (from + to) >>> 1;
+        mergeSort(rows, scratch, from, middle, comparator);
+        mergeSort(rows, scratch, middle, to, comparator);
+        if (comparator.compare(rows[middle - 1], rows[middle]) <= 0) {
+            return; // Already in order
+        }
+        System.arraycopy(rows, from, scratch, from, to - from);
+        int left = from;
+        int right = middle;
+        for (int i = from; i < to; i++) {
+            if (right >= to || (left < middle && comparator.compare(scratch[left], scratch[right]) <= 0)) {
+                rows[i] = scratch[left++];
+            } else {
+                rows[i] = scratch[right++];
+            }
+        }
+    }
+
+    /**
+     * The precomputed sort keys of one folder version. Each column is computed the first time a view needs it.
+     */
+    private static final class Columns {
+        private final List<Email> snapshot;
+        private final Email[] rows;
+        private final Collator collator;
+        private long[] dates;
+        private long[] sizes;
+        private CollationKey[] subjects;
+        private CollationKey[] recipients;
+
+        private Columns(List<Email> snapshot, Collator collator) {
+            this.snapshot = snapshot;
+            this.rows = snapshot.toArray(new Email[0]);
+            this.collator = collator;
+        }
+
+        private long[] dates() {
+            if (dates == null) {
+                dates = new long[rows.length];
+                for (int i = 0; i < rows.length; i++) {
+                    dates[i] = rows[i].getTimestamp().getTimeInMillis();
+                }
+            }
+            return dates;
+        }
+
+        private long[] sizes() {
+            if (sizes == null) {
+                sizes = new long[rows.length];
+                for (int i = 0; i < rows.length; i++) {
+                    sizes[i] = rows[i].getSize();
+                }
+            }
+            return sizes;
+        }
+
+        private CollationKey[] subjects() {
+            if (subjects == null) {
+                subjects = new CollationKey[rows.length];
+                for (int i = 0; i < rows.length; i++) {
+                    subjects[i] = collator.getCollationKey(nullToEmpty(rows[i].getSubject()));
+                }
+            }
+            return subjects;
+        }
+
+        private CollationKey[] recipients() {
+            if (recipients == null) {
+                recipients = new CollationKey[rows.length];
+                for (int i = 0; i < rows.length; i++) {
+                    recipients[i] = collator.getCollationKey(nullToEmpty(rows[i].getTo()));
+                }
+            }
+            return recipients;
+        }
+
+        private static String nullToEmpty(String text) {
+            return text == null ? "" : text;
+        }
+    }
+
+    /**
+     * Cache of the views of one folder. The cache is tied to a single folder version; asking for a view of a
+     * newer version drops every cached view and column of the old one.
+     */
+    public static final class Cache {
+        private final Collator collator;
+        private Columns columns;
+        private final HashMap<List<Criterion>, SortView> views = new HashMap<>();
+
+        /**
+         * Constructs an empty cache that collates text using the default locale
+         */
+        public Cache() {
+            this.collator = Collator.getInstance();
+            this.collator.setStrength(Collator.SECONDARY); // Ignore case differences
+        }
+
+        /**
+         * Returns the view of a folder version in the given order, building it only if it is not cached
+         * @param snapshot the folder version to view
+         * @param criteria the sort keys, most significant first
+         * @return the sorted view
+         */
+        public synchronized SortView get(List<Email> snapshot, List<Criterion> criteria) {
+            if (columns == null || columns.snapshot != snapshot) {
+                columns = new Columns(snapshot, collator);
+                views.clear();
+            }
+            List<Criterion> key = List.copyOf(criteria);
+            SortView view = views.get(key);
+            if (view == null) {
+                view = new SortView(columns, key);
+                views.put(key, view);
+            }
+            return view;
+        }
+    }
+}
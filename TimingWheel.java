@@ -0,0 +1,245 @@
+import java.util.ArrayList;
+import java.util.HashMap;
+import java.util.List;
+import java.util.function.Consumer;
+
+/**
+ * TimingWheel is a hierarchical timing wheel that releases items when their deadline passes, driven by a single
+ * timer thread. Time is cut into ticks; each level of the wheel has 64 slots, and each slot of a level spans
+ * 64 times as many ticks as a slot of the level below. An item is placed in the lowest level whose range covers
+ * its deadline and is moved down a level ("cascaded") as its deadline approaches, so insert and cancel are O(1)
+ * and no per-item timer object or thread is ever created. Deadlines beyond the top level's range are parked in
+ * the top level and re-placed each time they are cascaded.
+ *
+ * @param <T> the type of item being scheduled
+ * @author Kenny
+ **/
+public class TimingWheel<T> {
+    private static final int BITS = 6;
+    private static final int SLOTS = 1 << BITS; // 64 slots per level
+    private static final int MASK = SLOTS - 1;
+    private static final int LEVELS = 4; // 64^4 ticks of range before items are parked
+    private static final long RANGE = 1L << (BITS * LEVELS);
+
+    /**
+     * An item in a slot; slots are circular doubly-linked lists so an entry can unlink itself in O(1)
+     */
+    private static final class Entry<T> {
+        final T item;
+        final long deadlineTick;
+        int level; // Level of the slot the entry is in
+        Entry<T> previous;
+        Entry<T> next;
+
+        Entry(T item, long deadlineTick) {
+            this.item = item;
+            this.deadlineTick = deadlineTick;
+        }
+    }
+
+    private final long tickMillis;
+    private final Entry<T>[][] wheels; // wheels[level][slot] = sentinel of the slot's list
+    private final int[] levelCounts; // Number of entries on each level, used to skip idle ticks
+    private final HashMap<T, Entry<T>> entries; // Item -> its entry, for cancel
+    private long currentTick; // Next tick to be processed
+    private Thread timerThread;
+
+    /**
+     * Constructs an empty wheel
+     * @param tickMillis the length of one tick in milliseconds (the scheduling precision)
+     * @param startMillis the current time in milliseconds
+     */
+    @SuppressWarnings({"unchecked", "rawtypes"})
+    public TimingWheel(long tickMillis, long startMillis) {
+        this.tickMillis = tickMillis;
+        this.wheels = new Entry[LEVELS][SLOTS];
+        for (int level = 0; level < LEVELS; level++) {
+            for (int slot = 0; slot < SLOTS; slot++) {
+                Entry<T> sentinel = new Entry<>(null, 0);
+                sentinel.previous = sentinel;
+                sentinel.next = sentinel;
+                wheels[level][slot] = sentinel;
+            }
+        }
+        this.levelCounts = new int[LEVELS];
+        this.entries = new HashMap<>();
+        this.currentTick = startMillis / tickMillis;
+    }
+
+    /**
+     * Schedules an item, replacing any earlier schedule for the same item. Deadlines in the past are released
+     * on the next tick.
+     * @param item the item to schedule
+     * @param deadlineMillis when the item is due, in milliseconds since the epoch
+     */
+    public synchronized void schedule(T item, long deadlineMillis) {
+        cancel(item);
+        // Round up so an item is never released before its deadline
+        Entry<T> entry = new Entry<>(item, (deadlineMillis + tickMillis - 1) / tickMillis);
+        entries.put(item, entry);
+        place(entry);
+    }
+
+    /**
+     * Cancels a scheduled item
+     * @param item the item to cancel
+     * @return true if the item was scheduled
+     */
+    public synchronized boolean cancel(T item) {
+        Entry<T> entry = entries.remove(item);
+        if (entry == null) {
+            return false;
+        }
+        entry.previous.next = entry.next;
+        entry.next.previous = entry.previous;
+        levelCounts[entry.level]--;
+        return true;
+    }
+
+    /**
+     * Returns the number of scheduled items
+     * @return the number of items waiting in the wheel
+     */
+    public synchronized int size() {
+        return entries.size();
+    }
+
+    /**
+     * Processes every tick up to the given time and returns the items that became due
+     * @param nowMillis the current time in milliseconds
+     * @return the due items, in deadline order per tick
+     */
+    public synchronized List<T> advance(long nowMillis) {
+        List<T> due = new ArrayList<>();
+        long targetTick = nowMillis / tickMillis;
+        while (currentTick <= targetTick) {
+            if (entries.isEmpty()) {
+                currentTick = targetTick + 1; // Nothing scheduled, skip the idle ticks
+                break;
+            }
+            // When the lowest levels are empty nothing can happen before the next level with entries turns over,
+            // so jump straight to that tick instead of visiting every empty slot on the way
+            int lowest = 0;
+            while (levelCounts[lowest] == 0) {
+                lowest++;
+            }
+            if (lowest > 0) {
+                long span = 1L << (BITS * lowest);
+                long boundary = (currentTick + span - 1) & -span;
+                if (boundary > targetTick) {
+                    currentTick = targetTick + 1;
+                    break;
+                }
+                currentTick = boundary;
+            }
+            int slot = (int) (currentTick & MASK);
+            if (slot == 0) {
+                cascade(1);
+            }
+            Entry<T> sentinel = wheels[0][slot];
+            while (sentinel.next != sentinel) {
+                Entry<T> entry = sentinel.next;
+                sentinel.next = entry.next;
+                entry.next.previous = sentinel;
+                entries.remove(entry.item);
+                levelCounts[0]--;
+                due.add(entry.item);
+            }
+            currentTick++;
+        }
+        return due;
+    }
+
+    /**
+     * Starts the timer thread, which advances the wheel once per tick and passes due items to the callback.
+     * The callback runs on the timer thread.
+     * @param name the name of the timer thread
+     * @param onDue called with the items that became due (never with an empty list)
+     */
+    public synchronized void start(String name, Consumer<List<T>> onDue) {
+        if (timerThread != null) {
+            return;
+        }
+        timerThread = new Thread(() -> {
+            while (!Thread.currentThread().isInterrupted()) {
+                try {
+                    long now = System.currentTimeMillis();
+                    Thread.sleep(tickMillis - now % tickMillis); // Wake at the start of the next tick
+                } catch (InterruptedException e) {
+                    return;
+                }
+                List<T> due = advance(System.currentTimeMillis());
+                if (!due.isEmpty()) {
+                    onDue.accept(due);
+                }
+            }
+        }, name);
+        timerThread.setDaemon(true); // Never keep the program running just for the timer
+        timerThread.start();
+    }
+
+    /**
+     * Stops the timer thread if it is running
+     */
+    public synchronized void stop() {
+        if (timerThread != null) {
+            timerThread.interrupt();
+            timerThread = null;
+        }
+    }
+
+    /**
+     * Helper Function to put an entry in the slot matching its deadline relative to the current tick
+     * @param entry the entry to place
+     */
+    private void place(Entry<T> entry) {
+        long delta = entry.deadlineTick - currentTick;
+        int level;
+        long slotTick;
+        if (delta <= 0) {
+            level = 0;
+            slotTick = currentTick; // Overdue, release on the next tick processed
+        } else if (delta >= RANGE) {
+            level = LEVELS - 1;
+            slotTick = currentTick + RANGE - 1; // Park at the far end of the top level
+        } else {
+            level = 0;
+            while (delta >= 1L << (BITS * (level + 1))) {
+                level++;
+            }
+            slotTick = entry.deadlineTick;
+        }
+        Entry<T> sentinel = wheels[level][(int) ((slotTick >>> (BITS * level)) & MASK)];
+        entry.level = level;
+        levelCounts[level]++;
+        entry.previous = sentinel.previous;
+        entry.next = sentinel;
+        sentinel.previous.next = entry;
+        sentinel.previous = entry;
+    }
+
+    /**
+     * Helper Function to move the entries of the current slot of a level down to lower levels. Called when
+     * every level below has wrapped around; wraps the next level up first when this level wraps too.
+     * @param level the level to cascade
+     */
+    private void cascade(int level) {
+        if (level >= LEVELS) {
+            return;
+        }
+        int slot = (int) ((currentTick >>> (BITS * level)) & MASK);
+        if (slot == 0) {
+            cascade(level + 1);
+        }
+        Entry<T> sentinel = wheels[level][slot];
+        Entry<T> entry = sentinel.next;
+        sentinel.next = sentinel;
+        sentinel.previous = sentinel;
+        while (entry != sentinel) {
+            Entry<T> next = entry.next;
+            levelCounts[level]--;
+            place(entry);
+            entry = next;
+        }
+    }
+}
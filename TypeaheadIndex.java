@@ -0,0 +1,381 @@
+import java.util.ArrayDeque;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.Comparator;
+import java.util.List;
+import java.util.Locale;
+
+/**
+ * TypeaheadIndex is a case-folded radix trie used to suggest folder names and subjects as the user types.
+ * It supports exact lookup, prefix completion and fuzzy completion (the typed text may be a few edits away
+ * from the start of a suggestion). Terms are counted, so adding the same subject twice and removing it once
+ * keeps it in the index. Chains of nodes with a single child are merged into one edge labelled with the whole
+ * run of characters, so a term costs one node for its unshared tail rather than one per character. Children are
+ * kept in small sorted arrays instead of maps to keep nodes light, and suggestions come back in alphabetical
+ * order. Every walk is a loop, so very long terms cannot overflow the stack.
+ *
+ * @author Kenny
+ **/
+public class TypeaheadIndex {
+    private static final char[] NO_KEYS = new char[0];
+    private static final Node[] NO_CHILDREN = new Node[0];
+
+    /**
+     * A trie node; the labels of the edges from the root spell the folded term. Apart from the root, a node
+     * without a term of its own always has at least two children.
+     */
+    private static final class Node {
+        String label; // Characters on the edge from the parent (empty for the root)
+        char[] keys = NO_KEYS; // Sorted first characters of the children's labels
+        Node[] children = NO_CHILDREN; // Child for each key
+        String term; // Original spelling of the term ending here, or null
+        int count; // Number of times the term ending here was added
+
+        Node(String label) {
+            this.label = label;
+        }
+
+        Node child(char c) {
+            int slot = Arrays.binarySearch(keys, c);
+            return slot >= 0 ? children[slot] : null;
+        }
+
+        void addChild(Node child) {
+            char c = child.label.charAt(0);
+            int slot = -Arrays.binarySearch(keys, c) - 1;
+            keys = insert(keys, slot, c);
+            Node[] grown = new Node[children.length + 1];
+            System.arraycopy(children, 0, grown, 0, slot);
+            grown[slot] = child;
+            System.arraycopy(children, slot, grown, slot + 1, children.length - slot);
+            children = grown;
+        }
+
+        void replaceChild(Node child) {
+            children[Arrays.binarySearch(keys, child.label.charAt(0))] = child;
+        }
+
+        void removeChild(char c) {
+            if (keys.length == 1) {
+                keys = NO_KEYS;
+                children = NO_CHILDREN;
+                return;
+            }
+            int slot = Arrays.binarySearch(keys, c);
+            char[] shrunkKeys = new char[keys.length - 1];
+            Node[] shrunk = new Node[children.length - 1];
+            System.arraycopy(keys, 0, shrunkKeys, 0, slot);
+            System.arraycopy(keys, slot + 1, shrunkKeys, slot, keys.length - slot - 1);
+            System.arraycopy(children, 0, shrunk, 0, slot);
+            System.arraycopy(children, slot + 1, shrunk, slot, children.length - slot - 1);
+            keys = shrunkKeys;
+            children = shrunk;
+        }
+
+        private static char[] insert(char[] array, int slot, char c) {
+            char[] grown = new char[array.length + 1];
+            System.arraycopy(array, 0, grown, 0, slot);
+            grown[slot] = c;
+            System.arraycopy(array, slot, grown, slot + 1, array.length - slot);
+            return grown;
+        }
+    }
+
+    /**
+     * A fuzzy suggestion together with how many edits it is from the typed text
+     */
+    private record Candidate(String term, int distance) {
+    }
+
+    /**
+     * A node still to be visited by the fuzzy search, with the edit distance row of the path above its edge
+     */
+    private record Pending(Node node, int[] previousRow) {
+    }
+
+    // Fuzzy matching is skipped for very short input and allows a second edit only for longer input
+    private static final int MIN_FUZZY_LENGTH = 3;
+    private static final int LONG_QUERY_LENGTH = 8;
+
+    private final Node root = new Node("");
+    private int size; // Number of distinct terms
+
+    /**
+     * Adds one occurrence of a term
+     * @param term the term to add (blank terms are ignored)
+     */
+    public synchronized void add(String term) {
+        if (term == null || term.isBlank()) {
+            return;
+        }
+        String folded = fold(term);
+        Node node = root;
+        int i = 0;
+        while (i < folded.length()) {
+            Node child = node.child(folded.charAt(i));
+            if (child == null) {
+                // Nothing shares the rest of the term, so it becomes a single edge
+                child = new Node(folded.substring(i));
+                node.addChild(child);
+                node = child;
+                break;
+            }
+            int common = commonPrefix(child.label, folded, i);
+            if (common < child.label.length()) {
+                // The term leaves the edge part way along, so split the edge where it does
+                Node split = new Node(child.label.substring(0, common));
+                child.label = child.label.substring(common);
+                node.replaceChild(split);
+                split.addChild(child);
+                child = split;
+            }
+            node = child;
+            i += common;
+        }
+        if (node.count == 0) {
+            node.term = term;
+            size++;
+        }
+        node.count++;
+    }
+
+    /**
+     * Removes one occurrence of a term, pruning trie nodes that are no longer needed
+     * @param term the term to remove
+     */
+    public synchronized void remove(String term) {
+        if (term == null || term.isBlank()) {
+            return;
+        }
+        String folded = fold(term);
+        Node parent = null;
+        Node node = root;
+        int i = 0;
+        while (i < folded.length()) {
+            Node child = node.child(folded.charAt(i));
+            if (child == null || !folded.startsWith(child.label, i)) {
+                return; // Not in the index
+            }
+            parent = node;
+            node = child;
+            i += child.label.length();
+        }
+        if (node.count == 0) {
+            return;
+        }
+        node.count--;
+        if (node.count > 0 || node == root) {
+            return;
+        }
+        node.term = null;
+        size--;
+        // Restore the shape of the trie: drop the node if it is now a leaf, then merge whichever node is left
+        // with a single child and no term into that child
+        if (node.keys.length == 0) {
+            parent.removeChild(node.label.charAt(0));
+            node = parent;
+            parent = parentOf(node, folded);
+        }
+        if (node != root && node.count == 0 && node.keys.length == 1) {
+            Node only = node.children[0];
+            only.label = node.label + only.label;
+            parent.replaceChild(only);
+        }
+    }
+
+    /**
+     * Looks up a term ignoring case
+     * @param term the term to look up
+     * @return the term as it was originally added, or null if it is not in the index
+     */
+    public synchronized String find(String term) {
+        Node node = walk(fold(term), true);
+        return node != null && node.count > 0 ? node.term : null;
+    }
+
+    /**
+     * Returns the number of distinct terms in the index
+     * @return the term count
+     */
+    public synchronized int size() {
+        return size;
+    }
+
+    /**
+     * Suggests terms for what the user has typed so far. Terms starting with the typed text come first;
+     * if there are not enough of those, terms starting with something a small number of edits away are added
+     * (one edit for short input, two for longer input, and the first character must always match).
+     * @param typed the text typed so far
+     * @param limit the maximum number of suggestions
+     * @return up to limit suggestions, best first
+     */
+    public synchronized List<String> suggest(String typed, int limit) {
+        List<String> suggestions = new ArrayList<>();
+        if (typed == null || typed.isBlank() || limit <= 0) {
+            return suggestions;
+        }
+        String folded = fold(typed);
+        Node start = walk(folded, false);
+        if (start != null) {
+            collect(start, suggestions, limit);
+        }
+        if (suggestions.size() < limit && folded.length() >= MIN_FUZZY_LENGTH) {
+            int maxDistance = folded.length() < LONG_QUERY_LENGTH ? 1 : 2;
+            for (String term : fuzzy(folded, maxDistance, limit)) {
+                if (suggestions.size() == limit) {
+                    break;
+                }
+                if (!suggestions.contains(term)) {
+                    suggestions.add(term);
+                }
+            }
+        }
+        return suggestions;
+    }
+
+    /**
+     * Finds terms that start with something within maxDistance edits (insertions, deletions or substitutions)
+     * of the typed text. The search walks the trie carrying one row of the edit distance table per level and
+     * stops descending as soon as every entry in the row exceeds maxDistance.
+     * @param folded the folded text typed so far
+     * @param maxDistance the maximum number of edits allowed
+     * @param limit the maximum number of terms to return
+     * @return matching terms ordered by distance, then alphabetically
+     */
+    private List<String> fuzzy(String folded, int maxDistance, int limit) {
+        int[] firstRow = new int[folded.length() + 1];
+        for (int i = 0; i < firstRow.length; i++) {
+            firstRow[i] = i;
+        }
+        // The first character must be typed correctly; typos there are rare and allowing them would mean
+        // searching every branch of the trie
+        List<Candidate> candidates = new ArrayList<>();
+        ArrayDeque<Pending> pending = new ArrayDeque<>();
+        Node first = root.child(folded.charAt(0));
+        if (first != null) {
+            pending.push(new Pending(first, firstRow));
+        }
+        while (!pending.isEmpty()) {
+            Pending next = pending.pop();
+            Node node = next.node();
+            int[] row = next.previousRow();
+            boolean descend = true;
+            // One row of the table per character of the edge
+            for (int c = 0; c < node.label.length() && descend; c++) {
+                row = nextRow(row, node.label.charAt(c), folded);
+                int distance = row[row.length - 1];
+                if (distance <= maxDistance) {
+                    // The typed text matches this prefix closely enough, so everything below it is a suggestion
+                    List<String> found = new ArrayList<>();
+                    collect(node, found, limit);
+                    for (String term : found) {
+                        candidates.add(new Candidate(term, distance));
+                    }
+                    descend = false;
+                } else if (Arrays.stream(row).min().getAsInt() > maxDistance) {
+                    descend = false; // No extension of this prefix can get back within range
+                }
+            }
+            if (descend) {
+                for (Node child : node.children) {
+                    pending.push(new Pending(child, row));
+                }
+            }
+        }
+        candidates.sort(Comparator.comparingInt(Candidate::distance).thenComparing(Candidate::term));
+        List<String> terms = new ArrayList<>();
+        for (int i = 0; i < candidates.size() && i < limit; i++) {
+            terms.add(candidates.get(i).term());
+        }
+        return terms;
+    }
+
+    /**
+     * Helper Function for the fuzzy search: computes the edit distance row after one more trie character
+     * @return the new row
+     */
+    private static int[] nextRow(int[] previousRow, char c, String folded) {
+        int[] row = new int[previousRow.length];
+        row[0] = previousRow[0] + 1;
+        for (int i = 1; i < row.length; i++) {
+            int substitution = previousRow[i - 1] + (folded.charAt(i - 1) == c ? 0 : 1);
+            row[i] = Math.min(substitution, Math.min(row[i - 1] + 1, previousRow[i] + 1));
+        }
+        return row;
+    }
+
+    /**
+     * Helper Function to collect terms below a node in alphabetical order, stopping once limit is reached
+     */
+    private void collect(Node start, List<String> found, int limit) {
+        ArrayDeque<Node> pending = new ArrayDeque<>();
+        pending.push(start);
+        while (!pending.isEmpty() && found.size() < limit) {
+            Node node = pending.pop();
+            if (node.count > 0) {
+                found.add(node.term);
+            }
+            // Push in reverse so the alphabetically first child is visited next
+            for (int slot = node.children.length - 1; slot >= 0; slot--) {
+                pending.push(node.children[slot]);
+            }
+        }
+    }
+
+    /**
+     * Helper Function to follow a folded string from the root
+     * @param exact true to only accept a path that ends on a node, false to also accept one that ends part way
+     *              along an edge (the node below the edge is returned, as every term below it starts with folded)
+     * @return the node reached, or null if the path does not exist
+     */
+    private Node walk(String folded, boolean exact) {
+        Node node = root;
+        int i = 0;
+        while (i < folded.length()) {
+            Node child = node.child(folded.charAt(i));
+            if (child == null) {
+                return null;
+            }
+            int common = commonPrefix(child.label, folded, i);
+            if (common < child.label.length()) {
+                return !exact && i + common == folded.length() ? child : null;
+            }
+            node = child;
+            i += common;
+        }
+        return node;
+    }
+
+    /**
+     * Helper Function to find the parent of a node on the path of a folded term
+     * @return the parent, or null for the root
+     */
+    private Node parentOf(Node target, String folded) {
+        Node parent = null;
+        Node node = root;
+        int i = 0;
+        while (node != target) {
+            parent = node;
+            node = node.child(folded.charAt(i));
+            i += node.label.length();
+        }
+        return parent;
+    }
+
+    /**
+     * Helper Function to count how many characters a label shares with a string from a given position
+     * @return the length of the common prefix
+     */
+    private static int commonPrefix(String label, String text, int from) {
+        int length = Math.min(label.length(), text.length() - from);
+        int common = 0;
+        while (common < length && label.charAt(common) == text.charAt(from + common)) {
+            common++;
+        }
+        return common;
+    }
+
+    private static String fold(String text) {
+        return text.toLowerCase(Locale.ROOT);
+    }
+}
@@ -0,0 +1,73 @@
+import java.util.List;
+
+/**
+ * MailboxRestoreTest checks that a save made before the built-in Outbox existed keeps its custom "Outbox" folder
+ * reachable after it is loaded. There is no test framework in this project, so run it with:
+ * javac -d out *.java test/*.java && java -cp out MailboxRestoreTest
+ *
+ * @author Kenny
+ **/
+public class MailboxRestoreTest {
+    public static void main(String[] args) {
+        renamesClashingOutbox();
+        skipsTakenNames();
+        keepsOutboxOfNewerSaves();
+        System.out.println("MailboxRestoreTest passed.");
+    }
+
+    /**
+     * A custom "Outbox" from an old save is renamed to "Outbox (1)" with its mail and filing rules
+     */
+    private static void renamesClashingOutbox() {
+        Folder customOutbox = new Folder("Outbox");
+        Email email = new Email("alice@example.com", "", "", "Draft", "Body");
+        customOutbox.addEmail(email);
+        RuleEngine rules = new RuleEngine();
+        rules.addRule(new FilingRule("outbox", List.of("alice"), List.of(), List.of()));
+
+        Mailbox mailbox = Mailbox.restore(List.of(new Folder("Inbox"), new Folder("Trash"), customOutbox), 2,
+                rules, null);
+
+        check(mailbox.getFolder("Outbox") != customOutbox, "the built-in Outbox should replace the custom one");
+        check(mailbox.getFolder("Outbox").getEmails().isEmpty(), "the built-in Outbox should start empty");
+        Folder renamed = mailbox.getFolder("Outbox (1)");
+        check(renamed == customOutbox, "the custom Outbox should be reachable as \"Outbox (1)\"");
+        check(renamed.getEmails().contains(email), "the renamed folder should keep its mail");
+        check(rules.getRules().get(0).getTargetFolder().equals("Outbox (1)"), "the filing rule should follow it");
+    }
+
+    /**
+     * The new name skips numbers already used by other custom folders
+     */
+    private static void skipsTakenNames() {
+        Folder customOutbox = new Folder("Outbox");
+        Folder taken = new Folder("Outbox (1)");
+        Mailbox mailbox = Mailbox.restore(List.of(new Folder("Inbox"), new Folder("Trash"), taken, customOutbox), 2,
+                null, null);
+
+        check(mailbox.getFolder("Outbox (1)") == taken, "an existing \"Outbox (1)\" should be left alone");
+        check(mailbox.getFolder("Outbox (2)") == customOutbox, "the custom Outbox should become \"Outbox (2)\"");
+    }
+
+    /**
+     * Saves that already hold the built-in Outbox are loaded unchanged
+     */
+    private static void keepsOutboxOfNewerSaves() {
+        Folder outbox = new Folder("Outbox");
+        Mailbox mailbox = Mailbox.restore(List.of(new Folder("Inbox"), new Folder("Trash"), outbox), 3, null, null);
+
+        check(mailbox.getFolder("Outbox") == outbox, "the saved Outbox should stay the built-in one");
+        check(mailbox.getFolder("Outbox (1)") == null, "nothing should be renamed");
+    }
+
+    /**
+     * Helper Function to fail the test with a message when a condition does not hold
+     * @param condition the condition that should be true
+     * @param message what went wrong
+     */
+    private static void check(boolean condition, String message) {
+        if (!condition) {
+            throw new AssertionError(message);
+        }
+    }
+}
@@ -0,0 +1,211 @@
+import java.io.IOException;
+import java.io.PipedInputStream;
+import java.io.PipedOutputStream;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.util.ArrayList;
+import java.util.HashSet;
+import java.util.List;
+import java.util.Locale;
+import java.util.Set;
+
+/**
+ * MailboxSyncTest syncs two local mailboxes and checks that the target ends up with the same folders and emails as
+ * the source, with running totals and entry times that agree with its emails. There is no test framework in this
+ * project, so run it with:
+ * javac -d out *.java test/*.java && java -cp out MailboxSyncTest
+ *
+ * @author Kenny
+ **/
+public class MailboxSyncTest {
+    public static void main(String[] args) throws IOException {
+        syncsChangesInMemory();
+        syncsStores();
+        System.out.println("MailboxSyncTest passed.");
+    }
+
+    /**
+     * A move in both directions, a delete to Trash, a read flag change and a folder created and removed on the
+     * source all reach the target, which is checked while it is still in memory
+     */
+    private static void syncsChangesInMemory() throws IOException {
+        Mailbox source = Mailbox.createEmpty();
+        source.addFolder(new Folder("Work"));
+        source.addFolder(new Folder("Old"));
+        Email report = deliver(source, "Quarterly report");
+        Email lunch = deliver(source, "Lunch on Friday");
+        Email invoice = deliver(source, "Invoice 42");
+        Email archived = deliver(source, "Archived thread");
+        source.moveEmail(report, source.getFolder("Work"));
+        source.moveEmail(archived, source.getFolder("Old"));
+
+        Mailbox target = Mailbox.createEmpty();
+        sync(source, target);
+        checkSame(source, target);
+
+        source.moveEmail(report, source.getInbox()); // Back from a custom folder to one that comes before it
+        source.moveEmail(lunch, source.getFolder("Work"));
+        source.deleteEmail(invoice);
+        source.getFolder("Work").setRead(lunch, true);
+        source.addFolder(new Folder("Receipts"));
+        source.moveEmail(deliver(source, "Receipt for order 7"), source.getFolder("Receipts"));
+        source.removeFolder("Old");
+
+        MailboxSync.SyncResult result = sync(source, target);
+        check(result.foldersCreated() == 1, "Receipts should be created, got " + result);
+        check(result.foldersRemoved() == 1, "Old should be removed, got " + result);
+        check(result.messagesMoved() >= 2, "moved emails should be reused, got " + result);
+        checkSame(source, target);
+        check(target.getFolder("Trash").getSummary().messageCount() == 1, "the deleted email should be in Trash");
+        check(target.getFolder("Work").getSummary().unreadCount() == 0, "the read flag should be synced");
+
+        MailboxSync.SyncResult again = sync(source, target);
+        check(again.hashesCompared() == 1, "a second sync should only compare the roots, got " + again);
+    }
+
+    /**
+     * syncStores copies a saved mailbox into a new store, and the target store loads back the same mailbox
+     */
+    private static void syncsStores() throws IOException {
+        Path sourceDirectory = Files.createTempDirectory("sync-source");
+        Path targetDirectory = Files.createTempDirectory("sync-target").resolve("store");
+        Mailbox source = Mailbox.createEmpty();
+        source.addFolder(new Folder("Work"));
+        source.moveEmail(deliver(source, "Design review"), source.getFolder("Work"));
+        deliver(source, "Welcome");
+        new MailboxStore(sourceDirectory).checkpoint(source);
+
+        MailboxSync.syncStores(sourceDirectory, targetDirectory);
+        checkSame(new MailboxStore(sourceDirectory).load(), new MailboxStore(targetDirectory).load());
+    }
+
+    /**
+     * Helper Function to deliver a new email to a mailbox
+     * @param mailbox the mailbox to deliver to
+     * @param subject the subject of the email
+     * @return the delivered email
+     */
+    private static Email deliver(Mailbox mailbox, String subject) {
+        Email email = new Email("kenny@example.com", "", "", subject, "Body of " + subject);
+        mailbox.deliverEmail(email);
+        return email;
+    }
+
+    /**
+     * Helper Function to sync a target mailbox from a source mailbox over a pipe, the way syncStores does
+     * @param source the mailbox to copy from
+     * @param target the mailbox to update
+     * @return what the sync changed
+     */
+    private static MailboxSync.SyncResult sync(Mailbox source, Mailbox target) throws IOException {
+        PipedInputStream serverIn = new PipedInputStream(64 * 1024);
+        PipedOutputStream clientOut = new PipedOutputStream(serverIn);
+        PipedInputStream clientIn = new PipedInputStream(64 * 1024);
+        PipedOutputStream serverOut = new PipedOutputStream(clientIn);
+        Thread server = new Thread(() -> {
+            try (serverIn; serverOut) {
+                MailboxSync.serve(source, serverIn, serverOut);
+            } catch (IOException e) {
+                System.out.println("Error serving sync: " + e.getMessage());
+            }
+        });
+        server.start();
+        MailboxSync.SyncResult result;
+        try (clientIn; clientOut) {
+            result = MailboxSync.pull(target, clientIn, clientOut);
+        }
+        try {
+            server.join();
+        } catch (InterruptedException e) {
+            Thread.currentThread().interrupt();
+        }
+        return result;
+    }
+
+    /**
+     * Helper Function to check that two mailboxes hold the same folders and emails, and that every target folder's
+     * summary and entry times describe its emails
+     * @param source the mailbox synced from
+     * @param target the mailbox synced to
+     */
+    private static void checkSame(Mailbox source, Mailbox target) {
+        List<Folder> sourceFolders = source.getAllFolders();
+        List<Folder> targetFolders = target.getAllFolders();
+        check(names(sourceFolders).equals(names(targetFolders)),
+                "folders differ: " + names(sourceFolders) + " vs " + names(targetFolders));
+        for (Folder sourceFolder : sourceFolders) {
+            Folder targetFolder = target.getFolder(sourceFolder.getName());
+            check(ids(sourceFolder).equals(ids(targetFolder)), sourceFolder.getName() + " holds different emails");
+            check(sourceFolder.getDigest() == targetFolder.getDigest(), sourceFolder.getName() + " hashes differ");
+            checkTotals(targetFolder);
+        }
+    }
+
+    /**
+     * Helper Function to check a folder's summary and entry times against its emails
+     * @param folder the folder to check
+     */
+    private static void checkTotals(Folder folder) {
+        Folder copy = folder.snapshot().copy();
+        List<Email> emails = copy.getEmails();
+        List<Long> entryTimes = copy.getEntryTimes();
+        FolderSummary summary = folder.getSummary();
+        check(entryTimes.size() == emails.size(), folder.getName() + " has an entry time per email");
+        check(summary.messageCount() == emails.size(), folder.getName() + " message count is wrong: " + summary);
+        int unread = 0;
+        long bytes = 0;
+        long oldest = Long.MAX_VALUE;
+        long newest = Long.MIN_VALUE;
+        for (Email email : emails) {
+            unread += email.isRead() ? 0 : 1;
+            bytes += email.getSize();
+            oldest = Math.min(oldest, email.getTimestamp().getTimeInMillis());
+            newest = Math.max(newest, email.getTimestamp().getTimeInMillis());
+        }
+        long oldestEntry = entryTimes.stream().min(Long::compare).orElse(0L);
+        check(summary.unreadCount() == unread, folder.getName() + " unread count is wrong: " + summary);
+        check(summary.totalBytes() == bytes, folder.getName() + " size is wrong: " + summary);
+        if (!emails.isEmpty()) {
+            check(summary.oldestMillis() == oldest && summary.newestMillis() == newest,
+                    folder.getName() + " timestamps are wrong");
+        }
+        check(summary.oldestEntryMillis() == oldestEntry, folder.getName() + " oldest entry time is wrong");
+    }
+
+    /**
+     * Helper Function to list the folder names of a mailbox, ignoring case
+     * @param folders the folders
+     * @return their names in order
+     */
+    private static List<String> names(List<Folder> folders) {
+        List<String> names = new ArrayList<>();
+        for (Folder folder : folders) {
+            names.add(folder.getName().toLowerCase(Locale.ROOT));
+        }
+        return names;
+    }
+
+    /**
+     * Helper Function to collect the ids of the emails in a folder
+     * @param folder the folder
+     * @return the ids
+     */
+    private static Set<String> ids(Folder folder) {
+        Set<String> ids = new HashSet<>();
+        for (Email email : folder.getEmails()) {
+            ids.add(email.getId());
+        }
+        return ids;
+    }
+
+    /**
+     * Helper Function to fail the test with a message when a condition does not hold
+     * @param condition the condition that should be true
+     * @param message what went wrong
+     */
+    private static void check(boolean condition, String message) {
+        if (!condition) {
+            throw new AssertionError(message);
+        }
+    }
+}